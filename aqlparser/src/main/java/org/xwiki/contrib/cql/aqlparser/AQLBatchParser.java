@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.contrib.cql.aqlparser.internal.Parser;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Parses many CQL statements at once, in parallel on a fork-join pool. Identical statements are only parsed once.
+ * Each statement is parsed without stopping at the first error, so all the errors of the batch are reported.
+ * This class is thread-safe.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class AQLBatchParser
+{
+    /**
+     * The number of statements under which a task parses its statements itself instead of splitting them in two
+     * tasks. Parsing a statement is quick, so smaller tasks would mostly add scheduling overhead.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 32;
+
+    private final AQLParserOptions options;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Parse statements with the default options, on the common fork-join pool.
+     */
+    public AQLBatchParser()
+    {
+        this(new AQLParserOptions(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param options the options to use for parsing each statement
+     * @param pool the pool on which the statements are parsed
+     */
+    public AQLBatchParser(AQLParserOptions options, ForkJoinPool pool)
+    {
+        this.options = options;
+        this.pool = pool;
+    }
+
+    /**
+     * @param statements the statements to parse
+     * @return the result of parsing each distinct statement, in the order in which the statements first appear. The
+     *     statement of a result is null if it could not be parsed at all, for instance because it is empty.
+     */
+    public Map<String, AQLParseResult> parse(Collection<String> statements)
+    {
+        String[] distinct = new LinkedHashSet<>(statements).toArray(new String[0]);
+        AQLParseResult[] results = new AQLParseResult[distinct.length];
+        if (distinct.length > 0) {
+            this.pool.invoke(new ParseTask(distinct, results, 0, distinct.length));
+        }
+
+        Map<String, AQLParseResult> resultsByStatement = new LinkedHashMap<>();
+        for (int i = 0; i < distinct.length; i++) {
+            resultsByStatement.put(distinct[i], results[i]);
+        }
+        return Collections.unmodifiableMap(resultsByStatement);
+    }
+
+    /**
+     * @param statements the statements to parse
+     * @return the result of parsing each distinct statement, in the order in which the statements first appear
+     * @see #parse(Collection)
+     */
+    public Map<String, AQLParseResult> parse(Stream<String> statements)
+    {
+        Collection<String> distinct = statements.collect(Collectors.toCollection(LinkedHashSet::new));
+        return parse(distinct);
+    }
+
+    private AQLParseResult parseOne(String statement)
+    {
+        try {
+            return new Parser(statement, this.options).parseWithRecovery();
+        } catch (ParserException e) {
+            // Only the errors making the whole statement unusable are thrown when parsing with recovery
+            return new AQLParseResult(null, Collections.singletonList(e));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a range of statements, splitting it in two halves parsed in parallel when it is large.
+     */
+    private final class ParseTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] statements;
+
+        private final AQLParseResult[] results;
+
+        private final int from;
+
+        private final int to;
+
+        ParseTask(String[] statements, AQLParseResult[] results, int from, int to)
+        {
+            this.statements = statements;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.results[i] = parseOne(this.statements[i]);
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ParseTask(this.statements, this.results, this.from, middle),
+                    new ParseTask(this.statements, this.results, middle, this.to));
+            }
+        }
+    }
+}
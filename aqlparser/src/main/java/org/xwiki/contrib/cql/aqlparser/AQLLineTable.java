@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.Arrays;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The offsets at which the lines of a CQL statement start. It allows AST nodes to only store their offset in the
+ * statement and to compute their line and column when needed. A table is shared by all the nodes of a statement.
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class AQLLineTable
+{
+    private final int[] lineStarts;
+
+    private final AQLParserState fixedState;
+
+    /**
+     * @param lineStarts the offsets at which the lines start, in increasing order. The array is not copied and must
+     *     not be modified afterwards.
+     */
+    public AQLLineTable(int[] lineStarts)
+    {
+        this.lineStarts = lineStarts;
+        this.fixedState = null;
+    }
+
+    /**
+     * Create a table which gives the same state for any offset. This is used for nodes created with a parser state
+     * instead of an offset.
+     *
+     * @param state the state to give for any offset
+     */
+    public AQLLineTable(AQLParserState state)
+    {
+        this.lineStarts = null;
+        this.fixedState = state;
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, in the CQL statement
+     * @return the state corresponding to the given offset
+     */
+    public AQLParserState getState(int offset)
+    {
+        if (this.fixedState != null) {
+            return this.fixedState;
+        }
+
+        int line = Arrays.binarySearch(this.lineStarts, offset);
+        if (line < 0) {
+            // The offset is inside the line starting before the insertion point.
+            line = -line - 2;
+        }
+
+        return new AQLParserState(offset, line + 1L, offset - this.lineStarts[line] + 1L);
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Simplifies parsed CQL statements without changing their meaning, so they convert to smaller queries and equivalent
+ * statements convert to the same query. The following rewrites are applied:
+ * <ul>
+ *     <li>groups of a single clause are unwrapped, and groups are flattened into their enclosing group when both
+ *     only use AND, or both only use OR;</li>
+ *     <li>repeated clauses of a group only using AND, or only using OR, are removed;</li>
+ *     <li>in a group only using OR, the clauses testing the same field with the = or IN operator against literal
+ *     values are merged into a single IN clause;</li>
+ *     <li>repeated values of IN and NOT IN expressions are removed, and IN and NOT IN expressions of a single literal
+ *     value are replaced by the = and != operators.</li>
+ * </ul>
+ * The clauses using = and IN are only rewritten into each other for the fields accepted by the given predicate, since
+ * the conversion of some fields may handle them differently.
+ * Groups using AND NOT or OR NOT, or mixing AND and OR, are left as is, but the clauses they contain are simplified.
+ * Order by clauses are left as is.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class AQLNormalizer
+{
+    private AQLNormalizer()
+    {
+    }
+
+    /**
+     * @param statement the statement to simplify
+     * @return a simplified statement with the same meaning as the given statement, rewriting the = and IN clauses of
+     *     all the fields into each other
+     */
+    public static AQLStatement normalize(AQLStatement statement)
+    {
+        return normalize(statement, field -> true);
+    }
+
+    /**
+     * @param statement the statement to simplify
+     * @param mergeableFields whether the = and IN clauses of the given field can be rewritten into each other
+     * @return a simplified statement with the same meaning as the given statement
+     */
+    public static AQLStatement normalize(AQLStatement statement, Predicate<String> mergeableFields)
+    {
+        // The groups are normalized from the innermost ones instead of recursively, so they can be nested as deeply
+        // as the parser allows. Each group is replaced by the normalized clauses of the group containing it.
+        Map<AbstractAQLClause, List<AQLClauseWithNextOperator>> normalizedGroups = new IdentityHashMap<>();
+        for (AQLClausesWithNextOperator group : getGroupsBottomUp(statement)) {
+            normalizedGroups.put(group, normalize(group.getClausesWithNextOp(), normalizedGroups,
+                mergeableFields));
+        }
+
+        return new AQLStatement(statement.getOffset(), statement.getLineTable(), normalizedGroups.get(statement),
+            statement.getOrderByClauses());
+    }
+
+    /**
+     * @return the given group and the groups nested in it, each of them being before the groups containing it
+     */
+    private static List<AQLClausesWithNextOperator> getGroupsBottomUp(AQLClausesWithNextOperator root)
+    {
+        List<AQLClausesWithNextOperator> groups = new ArrayList<>();
+        Deque<AQLClausesWithNextOperator> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            AQLClausesWithNextOperator group = toVisit.pop();
+            groups.add(group);
+            for (AQLClauseWithNextOperator clauseWithNextOp : group.getClausesWithNextOp()) {
+                if (clauseWithNextOp.getClause() instanceof AQLClausesWithNextOperator) {
+                    toVisit.push((AQLClausesWithNextOperator) clauseWithNextOp.getClause());
+                }
+            }
+        }
+        Collections.reverse(groups);
+        return groups;
+    }
+
+    /**
+     * @param normalizedGroups the normalized clauses of the groups nested in the given clauses
+     */
+    private static List<AQLClauseWithNextOperator> normalize(List<AQLClauseWithNextOperator> clausesWithNextOp,
+        Map<AbstractAQLClause, List<AQLClauseWithNextOperator>> normalizedGroups, Predicate<String> mergeableFields)
+    {
+        Boolean isAnd = getUniformOperator(clausesWithNextOp);
+        boolean uniform = clausesWithNextOp.size() == 1 || isAnd != null;
+
+        List<AQLClauseWithNextOperator> flattened = new ArrayList<>(clausesWithNextOp.size());
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (clause instanceof AQLClausesWithNextOperator) {
+                List<AQLClauseWithNextOperator> children = normalizedGroups.get(clause);
+                Boolean childrenAreAnd = getUniformOperator(children);
+                if (children.size() == 1 || (uniform && childrenAreAnd != null
+                    && (isAnd == null || isAnd.equals(childrenAreAnd))))
+                {
+                    // The parentheses are useless, the clauses of the group are moved in the enclosing group
+                    for (int i = 0; i < children.size() - 1; i++) {
+                        flattened.add(children.get(i));
+                    }
+                    AQLClauseWithNextOperator last = children.get(children.size() - 1);
+                    flattened.add(withNextOperator(last, last.getClause(), nextOp));
+                    if (isAnd == null) {
+                        isAnd = childrenAreAnd;
+                    }
+                } else {
+                    flattened.add(withNextOperator(clauseWithNextOp,
+                        new AQLClausesWithNextOperator(clause.getOffset(), clause.getLineTable(), children), nextOp));
+                }
+            } else if (clause instanceof AQLAtomicClause) {
+                flattened.add(withNextOperator(clauseWithNextOp, normalize((AQLAtomicClause) clause, mergeableFields),
+                    nextOp));
+            } else {
+                flattened.add(clauseWithNextOp);
+            }
+        }
+
+        if (!uniform || flattened.size() == 1) {
+            return flattened;
+        }
+
+        return simplify(flattened, Boolean.FALSE.equals(isAnd), mergeableFields);
+    }
+
+    /**
+     * Remove the repeated clauses of a group only using AND, or only using OR, and merge the clauses that can be
+     * merged into an IN clause if it only uses OR.
+     */
+    private static List<AQLClauseWithNextOperator> simplify(List<AQLClauseWithNextOperator> clausesWithNextOp,
+        boolean isOr, Predicate<String> mergeableFields)
+    {
+        List<AbstractAQLClause> clauses = new ArrayList<>(clausesWithNextOp.size());
+        List<AQLClauseOperator> nextOps = new ArrayList<>(clausesWithNextOp.size());
+        Set<AbstractAQLClause> seen = new HashSet<>();
+        Map<String, InMerge> merges = new HashMap<>();
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            if (isOr && isMergeable(clause) && mergeableFields.test(((AQLAtomicClause) clause).getField())) {
+                AQLAtomicClause atom = (AQLAtomicClause) clause;
+                InMerge merge = merges.get(atom.getField());
+                if (merge != null) {
+                    merge.add(atom);
+                    continue;
+                }
+                merges.put(atom.getField(), new InMerge(clauses.size(), atom));
+            } else if (!seen.add(clause)) {
+                continue;
+            }
+            clauses.add(clause);
+            nextOps.add(clauseWithNextOp.getNextOperator());
+        }
+
+        for (InMerge merge : merges.values()) {
+            clauses.set(merge.index, merge.getClause());
+        }
+
+        // The removed clauses are never the first of their kind, so if the last clause is removed, the new last
+        // clause is the only one that needs a change of operator.
+        List<AQLClauseWithNextOperator> simplified = new ArrayList<>(clauses.size());
+        for (int i = 0; i < clauses.size(); i++) {
+            AbstractAQLClause clause = clauses.get(i);
+            AQLClauseOperator nextOp = i == clauses.size() - 1 ? null : nextOps.get(i);
+            simplified.add(new AQLClauseWithNextOperator(clause.getOffset(), clause.getLineTable(), clause, nextOp));
+        }
+        return simplified;
+    }
+
+    private static AQLAtomicClause normalize(AQLAtomicClause atom, Predicate<String> mergeableFields)
+    {
+        AQLOperator op = atom.getOp().getOperator();
+        AbstractAQLRightHandValue right = atom.getRight();
+        if (!(right instanceof AQLInExpression) || (op != AQLOperator.IN && op != AQLOperator.NOT_IN)) {
+            return atom;
+        }
+
+        AQLInExpression in = withoutRepeatedValues((AQLInExpression) right);
+        List<AbstractAQLAtomicValue> values = in.getValues();
+        if (values.size() == 1 && isMergeable(values.get(0)) && mergeableFields.test(atom.getField())) {
+            AQLOperator singleValueOp = op == AQLOperator.IN ? AQLOperator.EQ : AQLOperator.NEQ;
+            return withRight(atom, singleValueOp, values.get(0));
+        }
+
+        return in == right ? atom : withRight(atom, op, in);
+    }
+
+    private static AQLInExpression withoutRepeatedValues(AQLInExpression in)
+    {
+        if (in instanceof AQLIntegerInExpression) {
+            AQLIntegerInExpression integers = (AQLIntegerInExpression) in;
+            long[] values = new long[integers.size()];
+            int[] valueOffsets = new int[integers.size()];
+            Set<Long> seen = new HashSet<>();
+            int count = 0;
+            for (int i = 0; i < integers.size(); i++) {
+                if (seen.add(integers.getLong(i))) {
+                    values[count] = integers.getLong(i);
+                    valueOffsets[count] = integers.getValueOffset(i);
+                    count++;
+                }
+            }
+            return count == integers.size()
+                ? in
+                : new AQLIntegerInExpression(in.getOffset(), in.getLineTable(), values, valueOffsets, count);
+        }
+
+        Set<AbstractAQLAtomicValue> values = new LinkedHashSet<>(in.getValues());
+        return values.size() == in.getValues().size()
+            ? in
+            : new AQLInExpression(in.getOffset(), in.getLineTable(), new ArrayList<>(values));
+    }
+
+    /**
+     * @return true if the operator between each clause of the group is AND, false if it is OR, and null if the group
+     *     mixes them, uses AND NOT or OR NOT, or has only one clause
+     */
+    private static Boolean getUniformOperator(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        Boolean isAnd = null;
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (nextOp == null) {
+                continue;
+            }
+            if (nextOp.isNot() || (isAnd != null && isAnd != nextOp.isAnd())) {
+                return null;
+            }
+            isAnd = nextOp.isAnd();
+        }
+        return isAnd;
+    }
+
+    /**
+     * @return whether the clause is a = or an IN clause only involving literal values. Function calls are left alone
+     *     because their conversion can depend on the clause they appear in, like for currentUser(). Parameters are
+     *     left alone because a collection bound to a parameter of an IN expression gives several values.
+     */
+    private static boolean isMergeable(AbstractAQLClause clause)
+    {
+        if (!(clause instanceof AQLAtomicClause)) {
+            return false;
+        }
+
+        AQLAtomicClause atom = (AQLAtomicClause) clause;
+        AbstractAQLRightHandValue right = atom.getRight();
+        switch (atom.getOp().getOperator()) {
+            case EQ:
+                return isMergeable(right);
+            case IN:
+                if (right instanceof AQLIntegerInExpression) {
+                    return true;
+                }
+                if (right instanceof AQLInExpression) {
+                    for (AbstractAQLAtomicValue value : ((AQLInExpression) right).getValues()) {
+                        if (!isMergeable(value)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isMergeable(AbstractAQLRightHandValue value)
+    {
+        return value instanceof AbstractAQLAtomicValue && !(value instanceof AQLFunctionCall)
+            && !(value instanceof AQLParameter);
+    }
+
+    private static AQLClauseWithNextOperator withNextOperator(AQLClauseWithNextOperator clauseWithNextOp,
+        AbstractAQLClause clause, AQLClauseOperator nextOp)
+    {
+        if (clause == clauseWithNextOp.getClause() && nextOp == clauseWithNextOp.getNextOperator()) {
+            return clauseWithNextOp;
+        }
+        return new AQLClauseWithNextOperator(clauseWithNextOp.getOffset(), clauseWithNextOp.getLineTable(), clause,
+            nextOp);
+    }
+
+    private static AQLAtomicClause withRight(AQLAtomicClause atom, AQLOperator op, AbstractAQLRightHandValue right)
+    {
+        AQLAtomicClauseOperator atomOp = atom.getOp();
+        if (atomOp.getOperator() != op) {
+            atomOp = new AQLAtomicClauseOperator(atomOp.getOffset(), atomOp.getLineTable(), op);
+        }
+        return new AQLAtomicClause(atom.getOffset(), atom.getLineTable(), atom.getField(), atomOp, right);
+    }
+
+    /**
+     * The values of the = and IN clauses of a group only using OR that test the same field, to be merged into the
+     * first of these clauses. As long as all the values are integers, they are collected as longs with the offset of
+     * their first occurrence, so that merging the IN expressions stored as long arrays doesn't create their nodes.
+     */
+    private static final class InMerge
+    {
+        private final int index;
+
+        private final AQLAtomicClause first;
+
+        /**
+         * The integer values, or null once a value which isn't an integer is found.
+         */
+        private Map<Long, Integer> integers = new LinkedHashMap<>();
+
+        /**
+         * The values, once a value which isn't an integer is found.
+         */
+        private Set<AbstractAQLAtomicValue> values;
+
+        private final int firstValueCount;
+
+        InMerge(int index, AQLAtomicClause first)
+        {
+            this.index = index;
+            this.first = first;
+            add(first);
+            this.firstValueCount = size();
+        }
+
+        void add(AQLAtomicClause atom)
+        {
+            AbstractAQLRightHandValue right = atom.getRight();
+            if (this.integers != null) {
+                if (right instanceof AQLIntegerInExpression) {
+                    AQLIntegerInExpression in = (AQLIntegerInExpression) right;
+                    for (int i = 0; i < in.size(); i++) {
+                        this.integers.putIfAbsent(in.getLong(i), in.getValueOffset(i));
+                    }
+                    return;
+                }
+                long integer = right instanceof AQLNumberLiteral
+                    ? AQLPreparedStatement.toInteger(((AQLNumberLiteral) right).getNumber())
+                    : -1;
+                if (integer != -1) {
+                    this.integers.putIfAbsent(integer, right.getOffset());
+                    return;
+                }
+                this.values = new LinkedHashSet<>();
+                for (Map.Entry<Long, Integer> entry : this.integers.entrySet()) {
+                    this.values.add(new AQLNumberLiteral(entry.getValue(), right.getLineTable(),
+                        Long.toString(entry.getKey())));
+                }
+                this.integers = null;
+            }
+
+            if (right instanceof AQLInExpression) {
+                this.values.addAll(((AQLInExpression) right).getValues());
+            } else {
+                this.values.add((AbstractAQLAtomicValue) right);
+            }
+        }
+
+        AQLAtomicClause getClause()
+        {
+            if (size() == this.firstValueCount) {
+                // Only repeated values were found, the first clause already has all of them
+                return this.first;
+            }
+
+            AbstractAQLRightHandValue right = this.first.getRight();
+            if (this.integers != null) {
+                long[] integerValues = new long[this.integers.size()];
+                int[] valueOffsets = new int[this.integers.size()];
+                int count = 0;
+                for (Map.Entry<Long, Integer> entry : this.integers.entrySet()) {
+                    integerValues[count] = entry.getKey();
+                    valueOffsets[count] = entry.getValue();
+                    count++;
+                }
+                return withRight(this.first, AQLOperator.IN, new AQLIntegerInExpression(right.getOffset(),
+                    right.getLineTable(), integerValues, valueOffsets, count));
+            }
+            return withRight(this.first, AQLOperator.IN, new AQLInExpression(right.getOffset(), right.getLineTable(),
+                new ArrayList<>(this.values)));
+        }
+
+        private int size()
+        {
+            return this.integers == null ? this.values.size() : this.integers.size();
+        }
+    }
+}
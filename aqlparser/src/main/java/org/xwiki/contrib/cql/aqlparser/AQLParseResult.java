@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The result of parsing a statement without stopping at the first error: the statement, from which the clauses
+ * containing errors are left out, and the errors.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class AQLParseResult
+{
+    private final AQLStatement statement;
+
+    private final List<ParserException> errors;
+
+    /**
+     * @param statement the parsed statement, without the clauses containing errors
+     * @param errors the errors found in the statement, in the order they appear
+     */
+    public AQLParseResult(AQLStatement statement, List<ParserException> errors)
+    {
+        this.statement = statement;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return the parsed statement. If there are errors, the clauses and order by clauses containing them are left
+     *     out: the statement is partial and should not be used to run a query.
+     */
+    public AQLStatement getStatement()
+    {
+        return this.statement;
+    }
+
+    /**
+     * @return the errors found in the statement, in the order they appear, each with its position and the path of
+     *     the grammar element in which it was found
+     */
+    public List<ParserException> getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * @return whether errors were found in the statement
+     */
+    public boolean hasErrors()
+    {
+        return !this.errors.isEmpty();
+    }
+}
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.cql.aqlparser;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 import org.xwiki.contrib.cql.aqlparser.internal.Parser;
@@ -53,4 +54,184 @@ public final class AQLParser
     {
         return new Parser(stmt).parse();
     }
+
+    /**
+     * Parse the AQL statement passed as parameter, using the given options.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @param options the options to use for parsing
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens, including when the statement exceeds a limit set in the options
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(String stmt, AQLParserOptions options) throws ParserException, IOException
+    {
+        return new Parser(stmt, options).parse();
+    }
+
+    /**
+     * Parse the AQL statement found in the given range of a character sequence. The characters are read in place, so
+     * a statement which is a part of a bigger buffer doesn't need to be copied first. Offsets and positions in the
+     * result and in errors are relative to the beginning of the range.
+     *
+     * @param source the character sequence containing the statement, which must not change while it is parsed
+     * @param start the offset of the statement in the source
+     * @param end the offset after the statement in the source
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @throws IndexOutOfBoundsException if the range is not in the source
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(CharSequence source, int start, int end) throws ParserException, IOException
+    {
+        return parse(source, start, end, new AQLParserOptions());
+    }
+
+    /**
+     * Parse the AQL statement found in the given range of a character sequence, using the given options.
+     *
+     * @param source the character sequence containing the statement, which must not change while it is parsed
+     * @param start the offset of the statement in the source
+     * @param end the offset after the statement in the source
+     * @param options the options to use for parsing
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens, including when the statement exceeds a limit set in the options
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @throws IndexOutOfBoundsException if the range is not in the source
+     * @see #parse(CharSequence, int, int)
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(CharSequence source, int start, int end, AQLParserOptions options)
+        throws ParserException, IOException
+    {
+        return new Parser(source, start, end, options).parse();
+    }
+
+    /**
+     * Parse the AQL statement found in the given range of a character array, without copying it.
+     *
+     * @param source the character array containing the statement, which must not change while it is parsed
+     * @param start the offset of the statement in the source
+     * @param end the offset after the statement in the source
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @throws IndexOutOfBoundsException if the range is not in the source
+     * @see #parse(CharSequence, int, int)
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(char[] source, int start, int end) throws ParserException, IOException
+    {
+        return parse(CharBuffer.wrap(source), start, end);
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter without stopping at the first error. After an error, parsing goes
+     * on from the next clause boundary: an AND or OR operator, the closing parenthesis of the group of clauses, an
+     * ORDER BY clause or the end of the statement. This allows reporting all the errors of a statement at once.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @return the partial AST and the errors found in the statement
+     * @throws ParserException if the statement can't be parsed at all, for instance because it is empty
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @since 0.2.1
+     */
+    public static AQLParseResult parseWithRecovery(String stmt) throws ParserException, IOException
+    {
+        return new Parser(stmt).parseWithRecovery();
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter without stopping at the first error, using the given options.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @param options the options to use for parsing
+     * @return the partial AST and the errors found in the statement
+     * @throws ParserException if the statement can't be parsed at all, for instance because it is empty or exceeds a
+     *     limit set in the options
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @see #parseWithRecovery(String)
+     * @since 0.2.1
+     */
+    public static AQLParseResult parseWithRecovery(String stmt, AQLParserOptions options)
+        throws ParserException, IOException
+    {
+        return new Parser(stmt, options).parseWithRecovery();
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter, in which positional ('?') and named (':name') parameters can be
+     * used in place of values. The prepared statement can then be bound to values many times without parsing the
+     * statement again.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @return the prepared statement
+     * @throws ParserException if a parse error happens
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @since 0.2.1
+     */
+    public static AQLPreparedStatement prepare(String stmt) throws ParserException, IOException
+    {
+        return new AQLPreparedStatement(new Parser(stmt).parseWithParameters());
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter, in which parameters can be used in place of values, using the
+     * given options.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @param options the options to use for parsing
+     * @return the prepared statement
+     * @throws ParserException if a parse error happens, including when the statement exceeds a limit set in the options
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @see #prepare(String)
+     * @since 0.2.1
+     */
+    public static AQLPreparedStatement prepare(String stmt, AQLParserOptions options)
+        throws ParserException, IOException
+    {
+        return new AQLPreparedStatement(new Parser(stmt, options).parseWithParameters());
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter, or get it from the given cache if it was already parsed. The
+     * parsed statement is added to the cache.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @param cache the cache of parsed statements
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(String stmt, AQLStatementCache cache) throws ParserException, IOException
+    {
+        return parse(stmt, cache, new AQLParserOptions());
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter using the given options, or get it from the given cache if it was
+     * already parsed. The parsed statement is added to the cache. The statements of a cache are not checked against
+     * the options again, so a cache should always be used with the same options.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @param cache the cache of parsed statements
+     * @param options the options to use for parsing
+     * @return the parsed result as an AST tree
+     * @throws ParserException if a parse error happens, including when the statement exceeds a limit set in the options
+     * @throws IOException in case a IO error happens, though it shouldn't
+     * @since 0.2.1
+     */
+    public static AQLStatement parse(String stmt, AQLStatementCache cache, AQLParserOptions options)
+        throws ParserException, IOException
+    {
+        AQLStatement statement = cache.get(stmt);
+        if (statement == null) {
+            statement = parse(stmt, options);
+            cache.put(stmt, statement);
+        }
+        return statement;
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Options controlling how CQL statements are parsed.
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public class AQLParserOptions
+{
+    /**
+     * The value meaning that a limit is not enforced.
+     */
+    public static final int UNLIMITED = -1;
+
+    private int maxDepth = UNLIMITED;
+
+    private int maxLength = UNLIMITED;
+
+    private int maxClauses = UNLIMITED;
+
+    private int maxInValues = UNLIMITED;
+
+    private int maxFunctionArguments = UNLIMITED;
+
+    private boolean debug;
+
+    private boolean operatorPositions = true;
+
+    /**
+     * @return the maximum number of nested parentheses allowed in a statement, or {@link #UNLIMITED}
+     */
+    public int getMaxDepth()
+    {
+        return this.maxDepth;
+    }
+
+    /**
+     * @param maxDepth the maximum number of nested parentheses allowed in a statement, or {@link #UNLIMITED}
+     * @return these options
+     */
+    public AQLParserOptions setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of characters of a statement, or {@link #UNLIMITED}
+     */
+    public int getMaxLength()
+    {
+        return this.maxLength;
+    }
+
+    /**
+     * @param maxLength the maximum number of characters of a statement, or {@link #UNLIMITED}
+     * @return these options
+     */
+    public AQLParserOptions setMaxLength(int maxLength)
+    {
+        this.maxLength = maxLength;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of atomic clauses in a statement, or {@link #UNLIMITED}
+     */
+    public int getMaxClauses()
+    {
+        return this.maxClauses;
+    }
+
+    /**
+     * @param maxClauses the maximum number of atomic clauses in a statement, or {@link #UNLIMITED}
+     * @return these options
+     */
+    public AQLParserOptions setMaxClauses(int maxClauses)
+    {
+        this.maxClauses = maxClauses;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of values in an IN expression, or {@link #UNLIMITED}
+     */
+    public int getMaxInValues()
+    {
+        return this.maxInValues;
+    }
+
+    /**
+     * @param maxInValues the maximum number of values in an IN expression, or {@link #UNLIMITED}
+     * @return these options
+     */
+    public AQLParserOptions setMaxInValues(int maxInValues)
+    {
+        this.maxInValues = maxInValues;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of arguments of a function call, or {@link #UNLIMITED}
+     */
+    public int getMaxFunctionArguments()
+    {
+        return this.maxFunctionArguments;
+    }
+
+    /**
+     * @param maxFunctionArguments the maximum number of arguments of a function call, or {@link #UNLIMITED}
+     * @return these options
+     */
+    public AQLParserOptions setMaxFunctionArguments(int maxFunctionArguments)
+    {
+        this.maxFunctionArguments = maxFunctionArguments;
+        return this;
+    }
+
+    /**
+     * @return whether operator nodes record their position in the statement
+     */
+    public boolean isOperatorPositions()
+    {
+        return this.operatorPositions;
+    }
+
+    /**
+     * @param operatorPositions whether operator nodes should record their position in the statement. When false,
+     *     the parser uses the operator nodes shared by all statements ({@link
+     *     org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator#of(boolean, boolean)} and {@link
+     *     org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator#of(AQLOperator)}),
+     *     which saves memory when many statements are kept, at the price of errors reported at an unknown position.
+     * @return these options
+     */
+    public AQLParserOptions setOperatorPositions(boolean operatorPositions)
+    {
+        this.operatorPositions = operatorPositions;
+        return this;
+    }
+
+    /**
+     * @return whether parse errors record the stack trace of the parser
+     */
+    public boolean isDebug()
+    {
+        return this.debug;
+    }
+
+    /**
+     * @param debug whether parse errors should record the stack trace of the parser. This makes errors more costly
+     *     and is only useful to debug the parser itself.
+     * @return these options
+     */
+    public AQLParserOptions setDebug(boolean debug)
+    {
+        this.debug = debug;
+        return this;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLBooleanLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLNode;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLVisitor;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A statement parsed once and run many times with different values, like
+ * {@code label = ? and space = :space}. Positional parameters ('?') are bound in the order they appear in the
+ * statement, named parameters (':name') by name. Strings, numbers and booleans can be bound. A collection can be bound
+ * to a parameter of an IN expression, like in {@code id in (:ids)}: each of its elements is a value of the
+ * expression.
+ * This class is thread-safe.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ * @see AQLParser#prepare(String)
+ */
+@Unstable
+public final class AQLPreparedStatement
+{
+    private static final String PARAMETER = "Parameter [%s] ";
+
+    private static final int MAX_INTEGER_DIGITS = 18;
+
+    private final AQLStatement statement;
+
+    private final int positionalParameterCount;
+
+    private final Set<String> parameterNames;
+
+    /**
+     * @param statement the parsed statement, which may contain parameters
+     */
+    public AQLPreparedStatement(AQLStatement statement)
+    {
+        this.statement = statement;
+        ParameterCollector collector = new ParameterCollector();
+        statement.accept(collector, null);
+        this.positionalParameterCount = collector.positionalParameterCount;
+        this.parameterNames = Collections.unmodifiableSet(collector.names);
+    }
+
+    /**
+     * @return the statement, in which the parameters are {@link AQLParameter} nodes
+     */
+    public AQLStatement getStatement()
+    {
+        return this.statement;
+    }
+
+    /**
+     * @return the number of positional parameters ('?') of the statement
+     */
+    public int getPositionalParameterCount()
+    {
+        return this.positionalParameterCount;
+    }
+
+    /**
+     * @return the names of the named parameters of the statement, in the order they first appear
+     */
+    public Set<String> getParameterNames()
+    {
+        return this.parameterNames;
+    }
+
+    /**
+     * @return whether the statement has parameters
+     */
+    public boolean hasParameters()
+    {
+        return this.positionalParameterCount > 0 || !this.parameterNames.isEmpty();
+    }
+
+    /**
+     * @param node a node
+     * @return whether the node or one of its descendants is a parameter
+     */
+    public static boolean hasParameters(AbstractAQLNode node)
+    {
+        ParameterCollector collector = new ParameterCollector();
+        node.accept(collector, null);
+        return collector.positionalParameterCount > 0 || !collector.names.isEmpty();
+    }
+
+    /**
+     * @param positionalValues the values of the positional parameters, in the order they appear in the statement
+     * @param namedValues the values of the named parameters
+     * @return the statement, in which the parameters are replaced by their values
+     * @throws ParserException if a parameter has no value, or a value that can't be bound
+     */
+    public AQLStatement bind(List<?> positionalValues, Map<String, ?> namedValues) throws ParserException
+    {
+        if (!hasParameters()) {
+            return this.statement;
+        }
+
+        return new AQLStatement(this.statement.getOffset(), this.statement.getLineTable(),
+            bind(this.statement.getClausesWithNextOp(), positionalValues, namedValues),
+            this.statement.getOrderByClauses());
+    }
+
+    /**
+     * Bind the parameters of a single atomic clause. This allows converting the clauses without parameters once, and
+     * only the clauses with parameters for each set of values.
+     *
+     * @param atom an atomic clause of the statement
+     * @param positionalValues the values of the positional parameters, in the order they appear in the statement
+     * @param namedValues the values of the named parameters
+     * @return the atomic clause, in which the parameters are replaced by their values
+     * @throws ParserException if a parameter has no value, or a value that can't be bound
+     */
+    public AQLAtomicClause bind(AQLAtomicClause atom, List<?> positionalValues, Map<String, ?> namedValues)
+        throws ParserException
+    {
+        AbstractAQLRightHandValue right = atom.getRight();
+        AbstractAQLRightHandValue boundRight;
+        if (right instanceof AQLInExpression) {
+            boundRight = bind((AQLInExpression) right, positionalValues, namedValues);
+        } else if (right instanceof AbstractAQLAtomicValue) {
+            boundRight = bind((AbstractAQLAtomicValue) right, positionalValues, namedValues);
+        } else {
+            boundRight = right;
+        }
+
+        return boundRight == right
+            ? atom
+            : new AQLAtomicClause(atom.getOffset(), atom.getLineTable(), atom.getField(), atom.getOp(), boundRight);
+    }
+
+    private List<AQLClauseWithNextOperator> bind(List<AQLClauseWithNextOperator> clausesWithNextOp,
+        List<?> positionalValues, Map<String, ?> namedValues) throws ParserException
+    {
+        List<AQLClauseWithNextOperator> bound = new ArrayList<>(clausesWithNextOp.size());
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            AbstractAQLClause boundClause;
+            if (clause instanceof AQLAtomicClause) {
+                boundClause = bind((AQLAtomicClause) clause, positionalValues, namedValues);
+            } else if (clause instanceof AQLClausesWithNextOperator) {
+                boundClause = new AQLClausesWithNextOperator(clause.getOffset(), clause.getLineTable(),
+                    bind(((AQLClausesWithNextOperator) clause).getClausesWithNextOp(), positionalValues,
+                        namedValues));
+            } else {
+                boundClause = clause;
+            }
+            bound.add(new AQLClauseWithNextOperator(clauseWithNextOp.getOffset(), clauseWithNextOp.getLineTable(),
+                boundClause, clauseWithNextOp.getNextOperator()));
+        }
+        return bound;
+    }
+
+    private AQLInExpression bind(AQLInExpression in, List<?> positionalValues, Map<String, ?> namedValues)
+        throws ParserException
+    {
+        if (in instanceof AQLIntegerInExpression) {
+            // Only integers, no parameters
+            return in;
+        }
+
+        List<AbstractAQLAtomicValue> values = new ArrayList<>(in.getValues().size());
+        for (AbstractAQLAtomicValue value : in.getValues()) {
+            if (value instanceof AQLParameter) {
+                AQLParameter parameter = (AQLParameter) value;
+                Object boundValue = getValue(parameter, positionalValues, namedValues);
+                if (boundValue instanceof Collection) {
+                    if (((Collection<?>) boundValue).isEmpty()) {
+                        throw new ParserException(
+                            String.format(PARAMETER + "is bound to an empty collection", describe(parameter)),
+                            parameter.getParserState());
+                    }
+                    for (Object element : (Collection<?>) boundValue) {
+                        values.add(toLiteral(parameter, element));
+                    }
+                } else {
+                    values.add(toLiteral(parameter, boundValue));
+                }
+            } else {
+                values.add(bind(value, positionalValues, namedValues));
+            }
+        }
+
+        return toInExpression(in, values);
+    }
+
+    private AbstractAQLAtomicValue bind(AbstractAQLAtomicValue value, List<?> positionalValues,
+        Map<String, ?> namedValues) throws ParserException
+    {
+        if (value instanceof AQLParameter) {
+            AQLParameter parameter = (AQLParameter) value;
+            Object boundValue = getValue(parameter, positionalValues, namedValues);
+            if (boundValue instanceof Collection) {
+                throw new ParserException(String.format(
+                    PARAMETER + "can only be bound to a collection in an IN expression", describe(parameter)),
+                    parameter.getParserState());
+            }
+            return toLiteral(parameter, boundValue);
+        }
+
+        if (value instanceof AQLFunctionCall && hasParameters(value)) {
+            AQLFunctionCall call = (AQLFunctionCall) value;
+            List<AbstractAQLAtomicValue> arguments = new ArrayList<>(call.getArguments().size());
+            for (AbstractAQLAtomicValue argument : call.getArguments()) {
+                arguments.add(bind(argument, positionalValues, namedValues));
+            }
+            return new AQLFunctionCall(call.getOffset(), call.getLineTable(), call.getFunctionName(), arguments);
+        }
+
+        return value;
+    }
+
+    private static Object getValue(AQLParameter parameter, List<?> positionalValues, Map<String, ?> namedValues)
+        throws ParserException
+    {
+        Object value = null;
+        if (parameter.getName() == null) {
+            if (positionalValues != null && parameter.getIndex() < positionalValues.size()) {
+                value = positionalValues.get(parameter.getIndex());
+            }
+        } else if (namedValues != null) {
+            value = namedValues.get(parameter.getName());
+        }
+
+        if (value == null) {
+            throw new ParserException(String.format(PARAMETER + "has no value", describe(parameter)),
+                parameter.getParserState());
+        }
+        return value;
+    }
+
+    private static AbstractAQLAtomicValue toLiteral(AQLParameter parameter, Object value) throws ParserException
+    {
+        if (value == null) {
+            // Only possible for an element of a collection
+            throw new ParserException(String.format(PARAMETER + "has no value", describe(parameter)),
+                parameter.getParserState());
+        }
+
+        int offset = parameter.getOffset();
+        AQLLineTable lineTable = parameter.getLineTable();
+        if (value instanceof String) {
+            return new AQLStringLiteral(offset, lineTable, (String) value);
+        }
+        if (value instanceof Number) {
+            return new AQLNumberLiteral(offset, lineTable, value.toString());
+        }
+        if (value instanceof Boolean) {
+            return new AQLBooleanLiteral(offset, lineTable, (Boolean) value);
+        }
+
+        throw new ParserException(String.format(PARAMETER + "can't be bound to a value of type [%s]",
+            describe(parameter), value.getClass().getName()), parameter.getParserState());
+    }
+
+    /**
+     * @return an IN expression with the given values, stored as a long array if they are all integers like when
+     *     parsing
+     */
+    private static AQLInExpression toInExpression(AQLInExpression in, List<AbstractAQLAtomicValue> values)
+    {
+        long[] integers = new long[values.size()];
+        int[] offsets = new int[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            AbstractAQLAtomicValue value = values.get(i);
+            long integer = value instanceof AQLNumberLiteral ? toInteger(((AQLNumberLiteral) value).getNumber()) : -1;
+            if (integer == -1) {
+                return new AQLInExpression(in.getOffset(), in.getLineTable(), values);
+            }
+            integers[i] = integer;
+            offsets[i] = value.getOffset();
+        }
+        return new AQLIntegerInExpression(in.getOffset(), in.getLineTable(), integers, offsets, values.size());
+    }
+
+    /**
+     * @return the integer written in the given string if it is written like the parser stores integers as longs, -1
+     *     otherwise
+     */
+    static long toInteger(String number)
+    {
+        int length = number.length();
+        if (length == 0 || length > MAX_INTEGER_DIGITS || (length > 1 && number.charAt(0) == '0')) {
+            return -1;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(number);
+    }
+
+    private static String describe(AQLParameter parameter)
+    {
+        return parameter.getName() == null ? "?" : ':' + parameter.getName();
+    }
+
+    /**
+     * Collects the parameters of a node and of its descendants.
+     */
+    private static final class ParameterCollector extends AbstractAQLVisitor<Void, Void, RuntimeException>
+    {
+        private int positionalParameterCount;
+
+        private final Set<String> names = new LinkedHashSet<>();
+
+        @Override
+        public Void visit(AQLClausesWithNextOperator node, Void parameter)
+        {
+            for (AQLClauseWithNextOperator clauseWithNextOp : node.getClausesWithNextOp()) {
+                clauseWithNextOp.getClause().accept(this, null);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(AQLAtomicClause node, Void parameter)
+        {
+            if (node.getRight() != null) {
+                node.getRight().accept(this, null);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(AQLInExpression node, Void parameter)
+        {
+            if (!(node instanceof AQLIntegerInExpression)) {
+                for (AbstractAQLAtomicValue value : node.getValues()) {
+                    value.accept(this, null);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(AQLFunctionCall node, Void parameter)
+        {
+            for (AbstractAQLAtomicValue argument : node.getArguments()) {
+                argument.accept(this, null);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(AQLParameter node, Void parameter)
+        {
+            if (node.getName() == null) {
+                this.positionalParameterCount = Math.max(this.positionalParameterCount, node.getIndex() + 1);
+            } else {
+                this.names.add(node.getName());
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A bounded cache of parsed CQL statements, keyed by the statement string. The least recently used statements are
+ * evicted when the cache holds too many statements, or when the estimated weight of the cached statements is too
+ * high. The weight of a parsed statement is estimated by the length of its string, which grows with the number of
+ * nodes of its AST.
+ * This class is thread-safe. Parsed statements are immutable, so they can be shared.
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public class AQLStatementCache
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int maxEntries;
+
+    private final long maxWeight;
+
+    private final Map<String, AQLStatement> statements = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long weight;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * @param maxEntries the maximum number of statements to keep
+     * @param maxWeight the maximum total weight of the statements to keep
+     */
+    public AQLStatementCache(int maxEntries, long maxWeight)
+    {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param statement the CQL statement
+     * @return the cached parsed statement, or null if it is not in the cache
+     */
+    public synchronized AQLStatement get(String statement)
+    {
+        AQLStatement result = this.statements.get(statement);
+        if (result == null) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Add a parsed statement to the cache, evicting the least recently used statements if needed. Statements heavier
+     * than the maximum weight are not cached.
+     *
+     * @param statement the CQL statement
+     * @param parsedStatement the result of parsing this statement
+     */
+    public synchronized void put(String statement, AQLStatement parsedStatement)
+    {
+        long statementWeight = getWeight(statement);
+        if (statementWeight > this.maxWeight || this.maxEntries <= 0) {
+            return;
+        }
+
+        if (this.statements.put(statement, parsedStatement) == null) {
+            this.weight += statementWeight;
+        }
+
+        Iterator<String> eldest = this.statements.keySet().iterator();
+        while (this.statements.size() > this.maxEntries || this.weight > this.maxWeight) {
+            this.weight -= getWeight(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove all the statements from the cache. The hit and miss counts are kept.
+     */
+    public synchronized void clear()
+    {
+        this.statements.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * @return the number of statements in the cache
+     */
+    public synchronized int size()
+    {
+        return this.statements.size();
+    }
+
+    /**
+     * @return the estimated total weight of the statements in the cache
+     */
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * @return the number of times a statement was found in the cache
+     */
+    public synchronized long getHitCount()
+    {
+        return this.hitCount;
+    }
+
+    /**
+     * @return the number of times a statement was not found in the cache
+     */
+    public synchronized long getMissCount()
+    {
+        return this.missCount;
+    }
+
+    private static long getWeight(String statement)
+    {
+        return statement.length();
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -47,7 +50,21 @@ public class AQLAtomicClause extends AbstractAQLClause
     public AQLAtomicClause(AQLParserState parserState, String field, AQLAtomicClauseOperator op,
         AbstractAQLRightHandValue right)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), field, op, right);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param field the left and side field to which the clause applies
+     * @param op the operator between the field and the right-hand side value
+     * @param right the right-hand side value (a literal, or what follows an IN operator)
+     * @since 0.2.1
+     */
+    public AQLAtomicClause(int offset, AQLLineTable lineTable, String field, AQLAtomicClauseOperator op,
+        AbstractAQLRightHandValue right)
+    {
+        super(offset, lineTable);
         this.field = field;
         this.op = op;
         this.right = right;
@@ -79,4 +96,30 @@ public class AQLAtomicClause extends AbstractAQLClause
     {
         return right;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLAtomicClause other = (AQLAtomicClause) o;
+        return this.field.equals(other.field) && this.op.equals(other.op)
+            && Objects.equals(this.right, other.right);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.field, this.op, this.right);
+    }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.cql.aqlparser.ast;
 
 import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -31,6 +32,14 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class AQLAtomicClauseOperator extends AbstractAQLNode
 {
+    private static final AQLAtomicClauseOperator[] SHARED = new AQLAtomicClauseOperator[AQLOperator.values().length];
+
+    static {
+        for (AQLOperator operator : AQLOperator.values()) {
+            SHARED[operator.ordinal()] = new AQLAtomicClauseOperator(0, UNKNOWN_POSITION, operator);
+        }
+    }
+
     private final AQLOperator operator;
 
     /**
@@ -40,10 +49,32 @@ public class AQLAtomicClauseOperator extends AbstractAQLNode
      */
     public AQLAtomicClauseOperator(AQLParserState parserState, AQLOperator operator)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), operator);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param operator the operator
+     * @since 0.2.1
+     */
+    public AQLAtomicClauseOperator(int offset, AQLLineTable lineTable, AQLOperator operator)
+    {
+        super(offset, lineTable);
         this.operator = operator;
     }
 
+    /**
+     * @param operator the operator
+     * @return the operator node shared by all the statements, which saves memory when many statements are kept. Its
+     *     position is unknown: its parser state is at line 0.
+     * @since 0.2.1
+     */
+    public static AQLAtomicClauseOperator of(AQLOperator operator)
+    {
+        return SHARED[operator.ordinal()];
+    }
+
     /**
      * @return the operator
      * @since 0.0.1
@@ -52,4 +83,29 @@ public class AQLAtomicClauseOperator extends AbstractAQLNode
     {
         return operator;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLAtomicClauseOperator other = (AQLAtomicClauseOperator) o;
+        return this.operator == other.operator;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.operator.hashCode();
+    }
 }
@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -39,7 +40,18 @@ public class AQLBooleanLiteral extends AbstractAQLAtomicValue
      */
     public AQLBooleanLiteral(AQLParserState parserState, boolean bool)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), bool);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param bool the parsed boolean
+     * @since 0.2.1
+     */
+    public AQLBooleanLiteral(int offset, AQLLineTable lineTable, boolean bool)
+    {
+        super(offset, lineTable);
         this.isTrue = bool;
     }
 
@@ -51,4 +63,29 @@ public class AQLBooleanLiteral extends AbstractAQLAtomicValue
     {
         return this.isTrue;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLBooleanLiteral other = (AQLBooleanLiteral) o;
+        return this.isTrue == other.isTrue;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Boolean.hashCode(this.isTrue);
+    }
 }
@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -30,6 +33,13 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class AQLClauseOperator extends AbstractAQLNode
 {
+    private static final AQLClauseOperator[] SHARED = {
+        new AQLClauseOperator(0, UNKNOWN_POSITION, false, false),
+        new AQLClauseOperator(0, UNKNOWN_POSITION, false, true),
+        new AQLClauseOperator(0, UNKNOWN_POSITION, true, false),
+        new AQLClauseOperator(0, UNKNOWN_POSITION, true, true)
+    };
+
     private final boolean isAnd;
 
     private final boolean isNot;
@@ -42,11 +52,35 @@ public class AQLClauseOperator extends AbstractAQLNode
      */
     public AQLClauseOperator(AQLParserState parserState, boolean isAnd, boolean isNot)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), isAnd, isNot);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param isAnd whether the operator is "and" or "and not"
+     * @param isNot whether the operator is "or not" or "and not"
+     * @since 0.2.1
+     */
+    public AQLClauseOperator(int offset, AQLLineTable lineTable, boolean isAnd, boolean isNot)
+    {
+        super(offset, lineTable);
         this.isAnd = isAnd;
         this.isNot = isNot;
     }
 
+    /**
+     * @param isAnd whether the operator is "and" or "and not"
+     * @param isNot whether the operator is "or not" or "and not"
+     * @return the operator shared by all the statements, which saves memory when many statements are kept. Its
+     *     position is unknown: its parser state is at line 0.
+     * @since 0.2.1
+     */
+    public static AQLClauseOperator of(boolean isAnd, boolean isNot)
+    {
+        return SHARED[(isAnd ? 2 : 0) + (isNot ? 1 : 0)];
+    }
+
     /**
      * @return whether the operator is "and" or "and not"
      * @since 0.0.1
@@ -64,4 +98,29 @@ public class AQLClauseOperator extends AbstractAQLNode
     {
         return isNot;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLClauseOperator other = (AQLClauseOperator) o;
+        return this.isAnd == other.isAnd && this.isNot == other.isNot;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.isAnd, this.isNot);
+    }
 }
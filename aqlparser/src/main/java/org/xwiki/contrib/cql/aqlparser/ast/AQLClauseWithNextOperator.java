@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -42,7 +45,20 @@ public class AQLClauseWithNextOperator extends AbstractAQLNode
      */
     public AQLClauseWithNextOperator(AQLParserState parserState, AbstractAQLClause clause, AQLClauseOperator nextOp)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), clause, nextOp);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param clause the clause
+     * @param nextOp the operator between this clause and the next one. Null for the last clause in the containing list.
+     * @since 0.2.1
+     */
+    public AQLClauseWithNextOperator(int offset, AQLLineTable lineTable, AbstractAQLClause clause,
+        AQLClauseOperator nextOp)
+    {
+        super(offset, lineTable);
         this.clause = clause;
         this.nextOperator = nextOp;
     }
@@ -64,4 +80,30 @@ public class AQLClauseWithNextOperator extends AbstractAQLNode
     {
         return nextOperator;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLClauseWithNextOperator other = (AQLClauseWithNextOperator) o;
+        return this.clause.equals(other.clause)
+            && Objects.equals(this.nextOperator, other.nextOperator);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.clause, this.nextOperator);
+    }
 }
@@ -19,8 +19,19 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -28,6 +39,8 @@ import org.xwiki.stability.Unstable;
  * Represents a list of clauses from left to right, each containing the clause operator between the clause and the next
  * one. Note: clauses are to be evaluated from left to right and there's no priority difference between the AND
  * operator and the OR operator, hence the flat (list) structure.
+ * Two groups of clauses are equal if they have the same clauses with the same operators in the same order, or, for
+ * groups only using AND or only using OR, if they have the same clauses in any order.
  *
  * @version $Id$
  * @since 0.0.1
@@ -35,23 +48,199 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class AQLClausesWithNextOperator extends AbstractAQLClause
 {
+    static final int ORDERED = 0;
+
+    static final int AND = 1;
+
+    static final int OR = 2;
+
+    private static final int HASH_MULTIPLIER = 31;
+
     private final List<AQLClauseWithNextOperator> clausesWithNextOp;
 
+    // Cached on first use, like String.hashCode(). 0 means not computed yet.
+    private int groupHash;
+
     /**
      * @param parserState the state of the parser right before starting to parse this node
      * @param clausesWithNextOp the clauses with their operators.
      */
     public AQLClausesWithNextOperator(AQLParserState parserState, List<AQLClauseWithNextOperator> clausesWithNextOp)
     {
-        super(parserState);
-        this.clausesWithNextOp = clausesWithNextOp;
+        this((int) parserState.getPos(), new AQLLineTable(parserState), clausesWithNextOp);
     }
 
     /**
-     * @return the clauses with their operators.
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param clausesWithNextOp the clauses with their operators.
+     * @since 0.2.1
+     */
+    public AQLClausesWithNextOperator(int offset, AQLLineTable lineTable,
+        List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        super(offset, lineTable);
+        this.clausesWithNextOp = immutableCopy(clausesWithNextOp);
+    }
+
+    /**
+     * @return the clauses with their operators, as an unmodifiable list.
      */
     public List<AQLClauseWithNextOperator> getClausesWithNextOp()
     {
         return clausesWithNextOp;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    /**
+     * @return {@link #AND} or {@link #OR} if this group has several clauses and only uses this operator between
+     *     them, so the order of its clauses doesn't matter, and {@link #ORDERED} otherwise
+     */
+    int getCommutativeOperator()
+    {
+        int size = this.clausesWithNextOp.size();
+        if (size < 2 || this.clausesWithNextOp.get(size - 1).getNextOperator() != null) {
+            return ORDERED;
+        }
+
+        boolean isAnd = this.clausesWithNextOp.get(0).getNextOperator().isAnd();
+        for (int i = 0; i < size - 1; i++) {
+            AQLClauseOperator nextOp = this.clausesWithNextOp.get(i).getNextOperator();
+            if (nextOp == null || nextOp.isNot() || nextOp.isAnd() != isAnd) {
+                return ORDERED;
+            }
+        }
+        return isAnd ? AND : OR;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        // Equal groups get the same identifier when numbered in the same table
+        Map<Object, Integer> identifiers = new HashMap<>();
+        return getIdentifier(this, identifiers).equals(getIdentifier((AQLClausesWithNextOperator) o, identifiers));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = this.groupHash;
+        if (result == 0) {
+            // The groups whose hash code is already known are not walked again
+            for (AQLClausesWithNextOperator group : getGroupsBottomUp(this, nested -> nested.groupHash == 0)) {
+                group.groupHash = group.getHashCode();
+            }
+            result = this.groupHash;
+        }
+        return result;
+    }
+
+    /**
+     * The groups nested in the given group, including itself, each of them being before the groups containing it.
+     * Comparing, hashing or fingerprinting groups by going through this list instead of recursively lets them be
+     * nested as deeply as the parser allows.
+     *
+     * @param root the outermost group
+     * @return the groups, innermost first
+     */
+    static List<AQLClausesWithNextOperator> getGroupsBottomUp(AQLClausesWithNextOperator root)
+    {
+        return getGroupsBottomUp(root, nested -> true);
+    }
+
+    /**
+     * @param walked whether the given nested group and the groups it contains are listed
+     */
+    private static List<AQLClausesWithNextOperator> getGroupsBottomUp(AQLClausesWithNextOperator root,
+        Predicate<AQLClausesWithNextOperator> walked)
+    {
+        List<AQLClausesWithNextOperator> groups = new ArrayList<>();
+        Deque<AQLClausesWithNextOperator> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            AQLClausesWithNextOperator group = toVisit.pop();
+            groups.add(group);
+            for (AQLClauseWithNextOperator clauseWithNextOp : group.clausesWithNextOp) {
+                AbstractAQLClause clause = clauseWithNextOp.getClause();
+                if (clause instanceof AQLClausesWithNextOperator && walked.test((AQLClausesWithNextOperator) clause)) {
+                    toVisit.push((AQLClausesWithNextOperator) clause);
+                }
+            }
+        }
+        // Each group was added after the groups containing it
+        Collections.reverse(groups);
+        return groups;
+    }
+
+    /**
+     * @return an identifier of the given group, the same for all the groups equal to it numbered in the given table
+     */
+    private static Integer getIdentifier(AQLClausesWithNextOperator root, Map<Object, Integer> identifiers)
+    {
+        Map<AbstractAQLClause, Integer> groupIdentifiers = new IdentityHashMap<>();
+        for (AQLClausesWithNextOperator group : getGroupsBottomUp(root)) {
+            // The nested groups are replaced by their identifier, so comparing keys doesn't go through them
+            Object key = group.getKey(groupIdentifiers);
+            Integer identifier = identifiers.get(key);
+            if (identifier == null) {
+                identifier = identifiers.size();
+                identifiers.put(key, identifier);
+            }
+            groupIdentifiers.put(group, identifier);
+        }
+        return groupIdentifiers.get(root);
+    }
+
+    private Object getKey(Map<AbstractAQLClause, Integer> groupIdentifiers)
+    {
+        int operator = getCommutativeOperator();
+        if (operator == ORDERED) {
+            List<Object> key = new ArrayList<>(2 * this.clausesWithNextOp.size() + 1);
+            key.add(operator);
+            for (AQLClauseWithNextOperator clauseWithNextOp : this.clausesWithNextOp) {
+                key.add(getKey(clauseWithNextOp.getClause(), groupIdentifiers));
+                key.add(clauseWithNextOp.getNextOperator());
+            }
+            return key;
+        }
+
+        Map<Object, Integer> counts = new HashMap<>();
+        for (AQLClauseWithNextOperator clauseWithNextOp : this.clausesWithNextOp) {
+            counts.merge(getKey(clauseWithNextOp.getClause(), groupIdentifiers), 1, Integer::sum);
+        }
+        return Arrays.asList(operator, this.clausesWithNextOp.size(), counts);
+    }
+
+    private static Object getKey(AbstractAQLClause clause, Map<AbstractAQLClause, Integer> groupIdentifiers)
+    {
+        return clause instanceof AQLClausesWithNextOperator ? groupIdentifiers.get(clause) : clause;
+    }
+
+    private int getHashCode()
+    {
+        int operator = getCommutativeOperator();
+        int hash = operator;
+        for (AQLClauseWithNextOperator clauseWithNextOp : this.clausesWithNextOp) {
+            int clauseHash = clauseWithNextOp.getClause().hashCode();
+            if (operator == ORDERED) {
+                hash = HASH_MULTIPLIER * (HASH_MULTIPLIER * hash + clauseHash)
+                    + Objects.hashCode(clauseWithNextOp.getNextOperator());
+            } else {
+                hash += clauseHash;
+            }
+        }
+        return hash;
+    }
 }
@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -56,7 +59,25 @@ public class AQLDateLiteral extends AbstractAQLAtomicValue
      */
     public AQLDateLiteral(AQLParserState parserState, int year, int month, int day, int hours, int minutes)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), year, month, day, hours, minutes);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param year the full (e.g. 4 digits for a date of the 21st century) year of the Current era (ISO era)
+     * @param month the 1-indexed number of the month in the specified year (between 1 and 12, both included)
+     * @param day the 1-indexed day of the month (between 1 and 31, both included)
+     * @param hours the hours of the day between 0 and 23 (both included) if the date represents a moment
+     *              or -1 if this date represents a day and not a moment.
+     * @param minutes the minutes of the hour between 0 and 59 (both included) if the date represents a moment
+     *                or -1 if this date represents a day and not a moment.
+     * Note: minutes must be set to -1 if and only if hours is set to -1.
+     * @since 0.2.1
+     */
+    public AQLDateLiteral(int offset, AQLLineTable lineTable, int year, int month, int day, int hours, int minutes)
+    {
+        super(offset, lineTable);
         this.year = year;
         this.month = month;
         this.day = day;
@@ -110,4 +131,30 @@ public class AQLDateLiteral extends AbstractAQLAtomicValue
     {
         return minutes;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLDateLiteral other = (AQLDateLiteral) o;
+        return this.year == other.year && this.month == other.month && this.day == other.day
+            && this.hours == other.hours && this.minutes == other.minutes;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.year, this.month, this.day, this.hours, this.minutes);
+    }
 }
@@ -20,7 +20,9 @@
 package org.xwiki.contrib.cql.aqlparser.ast;
 
 import java.util.List;
+import java.util.Objects;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -44,9 +46,22 @@ public class AQLFunctionCall extends AbstractAQLAtomicValue
      */
     public AQLFunctionCall(AQLParserState parserState, String functionName, List<AbstractAQLAtomicValue> arguments)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), functionName, arguments);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param functionName the name of the called function
+     * @param arguments the arguments passed to the function
+     * @since 0.2.1
+     */
+    public AQLFunctionCall(int offset, AQLLineTable lineTable, String functionName,
+        List<AbstractAQLAtomicValue> arguments)
+    {
+        super(offset, lineTable);
         this.functionName = functionName;
-        this.arguments = arguments;
+        this.arguments = immutableCopy(arguments);
     }
 
     /**
@@ -59,11 +74,36 @@ public class AQLFunctionCall extends AbstractAQLAtomicValue
     }
 
     /**
-     * @return the arguments passed to the function
+     * @return the arguments passed to the function, as an unmodifiable list
      * @since 0.0.1
      */
     public List<AbstractAQLAtomicValue> getArguments()
     {
         return arguments;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLFunctionCall other = (AQLFunctionCall) o;
+        return this.functionName.equals(other.functionName) && this.arguments.equals(other.arguments);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.functionName, this.arguments);
+    }
 }
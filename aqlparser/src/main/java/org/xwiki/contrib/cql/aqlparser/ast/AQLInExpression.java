@@ -21,11 +21,13 @@ package org.xwiki.contrib.cql.aqlparser.ast;
 
 import java.util.List;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
 /**
  * Represents an IN expression. This is what follows an IN or a NOT IN operator in an atomic clause, in parentheses.
+ * IN expressions containing only integers are parsed as {@link AQLIntegerInExpression}.
  * @version $Id$
  * @since 0.0.1
  */
@@ -41,16 +43,64 @@ public class AQLInExpression extends AbstractAQLRightHandValue
      */
     public AQLInExpression(AQLParserState parserState, List<AbstractAQLAtomicValue> values)
     {
-        super(parserState);
-        this.values = values;
+        this((int) parserState.getPos(), new AQLLineTable(parserState), values);
     }
 
     /**
-     * @return the list of atomic values in this in expression.
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param values the list of atomic values in this IN expression.
+     * @since 0.2.1
+     */
+    public AQLInExpression(int offset, AQLLineTable lineTable, List<AbstractAQLAtomicValue> values)
+    {
+        super(offset, lineTable);
+        this.values = immutableCopy(values);
+    }
+
+    /**
+     * For subclasses storing their values differently, which override {@link #getValues()}.
+     *
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     */
+    AQLInExpression(int offset, AQLLineTable lineTable)
+    {
+        super(offset, lineTable);
+        this.values = null;
+    }
+
+    /**
+     * @return the unmodifiable list of atomic values in this in expression.
      * @since 0.0.1
      */
     public List<AbstractAQLAtomicValue> getValues()
     {
         return values;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        // An IN expression stored as a long array is equal to the same expression stored as a list of nodes
+        if (o instanceof AQLIntegerInExpression) {
+            return ((AQLIntegerInExpression) o).hasValues(getValues());
+        }
+        return o instanceof AQLInExpression && getValues().equals(((AQLInExpression) o).getValues());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getValues().hashCode();
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents an IN expression whose values are all integers, like the lists of Confluence content ids found in
+ * migrated statements. The values are stored as a {@code long} array instead of one node per value. The nodes
+ * returned by {@link #getValues()} are only created when they are accessed.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public class AQLIntegerInExpression extends AQLInExpression
+{
+    private static final int HASH_MULTIPLIER = 31;
+
+    private final NumberLiterals literals;
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param values the integer values of this IN expression. The first count values are copied.
+     * @param valueOffsets the 0-indexed position, in characters, of each value in the statement. The first count
+     *                     offsets are copied.
+     * @param count the number of values
+     */
+    public AQLIntegerInExpression(int offset, AQLLineTable lineTable, long[] values, int[] valueOffsets, int count)
+    {
+        this(offset, new NumberLiterals(lineTable, Arrays.copyOf(values, count), Arrays.copyOf(valueOffsets, count)));
+    }
+
+    private AQLIntegerInExpression(int offset, NumberLiterals literals)
+    {
+        super(offset, literals.lineTable);
+        this.literals = literals;
+    }
+
+    @Override
+    public List<AbstractAQLAtomicValue> getValues()
+    {
+        return this.literals;
+    }
+
+    /**
+     * @return the number of values in this IN expression
+     */
+    public int size()
+    {
+        return this.literals.values.length;
+    }
+
+    /**
+     * @param index the index of the value
+     * @return the value at the given index
+     */
+    public long getLong(int index)
+    {
+        return this.literals.values[index];
+    }
+
+    /**
+     * @param index the index of the value
+     * @return the 0-indexed position, in characters, of the value at the given index in the statement
+     */
+    public int getValueOffset(int index)
+    {
+        return this.literals.valueOffsets[index];
+    }
+
+    /**
+     * @return a copy of the values of this IN expression
+     */
+    public long[] toLongArray()
+    {
+        return this.literals.values.clone();
+    }
+
+    /**
+     * @param values a list of atomic values
+     * @return whether the given values are the number literals of this IN expression, without creating them
+     */
+    boolean hasValues(List<AbstractAQLAtomicValue> values)
+    {
+        long[] integers = this.literals.values;
+        if (values.size() != integers.length) {
+            return false;
+        }
+        for (int i = 0; i < integers.length; i++) {
+            AbstractAQLAtomicValue value = values.get(i);
+            if (value == null || value.getClass() != AQLNumberLiteral.class
+                || !((AQLNumberLiteral) value).getNumber().equals(Long.toString(integers[i])))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The values as number literals, created on first access, like the array holding them. Creating the same literal
+     * or array concurrently is harmless since literals are immutable.
+     */
+    private static final class NumberLiterals extends AbstractList<AbstractAQLAtomicValue> implements RandomAccess
+    {
+        private final AQLLineTable lineTable;
+
+        private final long[] values;
+
+        private final int[] valueOffsets;
+
+        private AQLNumberLiteral[] nodes;
+
+        NumberLiterals(AQLLineTable lineTable, long[] values, int[] valueOffsets)
+        {
+            this.lineTable = lineTable;
+            this.values = values;
+            this.valueOffsets = valueOffsets;
+        }
+
+        @Override
+        public AbstractAQLAtomicValue get(int index)
+        {
+            AQLNumberLiteral[] currentNodes = this.nodes;
+            if (currentNodes == null) {
+                currentNodes = new AQLNumberLiteral[this.values.length];
+                this.nodes = currentNodes;
+            }
+            AQLNumberLiteral node = currentNodes[index];
+            if (node == null) {
+                node = new AQLNumberLiteral(this.valueOffsets[index], this.lineTable,
+                    Long.toString(this.values[index]));
+                currentNodes[index] = node;
+            }
+            return node;
+        }
+
+        @Override
+        public int size()
+        {
+            return this.values.length;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o instanceof AQLIntegerInExpression) {
+            return Arrays.equals(this.literals.values, ((AQLIntegerInExpression) o).literals.values);
+        }
+        return o instanceof AQLInExpression && hasValues(((AQLInExpression) o).getValues());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // Same as the hash code of the list of values, without creating their nodes
+        int hash = 1;
+        for (long value : this.literals.values) {
+            hash = HASH_MULTIPLIER * hash + Long.toString(value).hashCode();
+        }
+        return hash;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -40,7 +41,19 @@ public class AQLNumberLiteral extends AbstractAQLAtomicValue
      */
     public AQLNumberLiteral(AQLParserState parserState, String number)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), number);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param number the represented number, as string.
+     *               It must be a valid number representation for Solr's Standard Query Parser.
+     * @since 0.2.1
+     */
+    public AQLNumberLiteral(int offset, AQLLineTable lineTable, String number)
+    {
+        super(offset, lineTable);
         this.number = number;
     }
 
@@ -52,4 +65,29 @@ public class AQLNumberLiteral extends AbstractAQLAtomicValue
     {
         return number;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLNumberLiteral other = (AQLNumberLiteral) o;
+        return this.number.equals(other.number);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.number.hashCode();
+    }
 }
@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -42,7 +45,19 @@ public class AQLOrderByClause extends AbstractAQLNode
      */
     public AQLOrderByClause(AQLParserState parserState, String field, boolean desc)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), field, desc);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param field the field name
+     * @param desc whether the order should be reversed
+     * @since 0.2.1
+     */
+    public AQLOrderByClause(int offset, AQLLineTable lineTable, String field, boolean desc)
+    {
+        super(offset, lineTable);
         this.field = field;
         this.desc = desc;
     }
@@ -64,4 +79,29 @@ public class AQLOrderByClause extends AbstractAQLNode
     {
         return desc;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLOrderByClause other = (AQLOrderByClause) o;
+        return this.field.equals(other.field) && this.desc == other.desc;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.field, this.desc);
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import java.util.Objects;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents a parameter of a prepared statement, standing for a value bound later: a positional parameter written
+ * '?' or a named parameter written ':name'. Parameters are only allowed when preparing a statement.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ * @see org.xwiki.contrib.cql.aqlparser.AQLPreparedStatement
+ */
+@Unstable
+public class AQLParameter extends AbstractAQLAtomicValue
+{
+    private final String name;
+
+    private final int index;
+
+    /**
+     * Create a named parameter.
+     *
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param name the name of the parameter, without the leading ':'
+     */
+    public AQLParameter(int offset, AQLLineTable lineTable, String name)
+    {
+        super(offset, lineTable);
+        this.name = name;
+        this.index = -1;
+    }
+
+    /**
+     * Create a positional parameter.
+     *
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param index the 0-indexed position of this parameter among the positional parameters of the statement
+     */
+    public AQLParameter(int offset, AQLLineTable lineTable, int index)
+    {
+        super(offset, lineTable);
+        this.name = null;
+        this.index = index;
+    }
+
+    /**
+     * @return the name of this parameter, or null if it is a positional parameter
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the 0-indexed position of this parameter among the positional parameters of the statement, or -1 if it
+     *     is a named parameter
+     */
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLParameter other = (AQLParameter) o;
+        return this.index == other.index && Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.name == null ? this.index : this.name.hashCode();
+    }
+}
@@ -21,6 +21,7 @@ package org.xwiki.contrib.cql.aqlparser.ast;
 
 import java.util.List;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -32,8 +33,15 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public class AQLStatement extends AQLClausesWithNextOperator
 {
+    private static final int HASH_MULTIPLIER = 31;
+
     private final List<AQLOrderByClause> orderByClauses;
 
+    // Cached on first use, like String.hashCode(). 0 means not computed yet.
+    private int hash;
+
+    private volatile long fingerprint;
+
     /**
      * @param parserState the state of the reader right before starting to parse this statement (likely at position 0,
      * line 1, column 1)
@@ -44,16 +52,68 @@ public class AQLStatement extends AQLClausesWithNextOperator
     public AQLStatement(AQLParserState parserState, List<AQLClauseWithNextOperator> clausesWithNextOp,
         List<AQLOrderByClause> orderByClauses)
     {
-        super(parserState, clausesWithNextOp);
-        this.orderByClauses = orderByClauses;
+        this((int) parserState.getPos(), new AQLLineTable(parserState), clausesWithNextOp, orderByClauses);
     }
 
     /**
-     * @return the order by clauses
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param clausesWithNextOp the clauses
+     * @param orderByClauses the order by clauses, from left to right
+     * @since 0.2.1
+     */
+    public AQLStatement(int offset, AQLLineTable lineTable, List<AQLClauseWithNextOperator> clausesWithNextOp,
+        List<AQLOrderByClause> orderByClauses)
+    {
+        super(offset, lineTable, clausesWithNextOp);
+        this.orderByClauses = immutableCopy(orderByClauses);
+    }
+
+    /**
+     * @return the order by clauses, as an unmodifiable list
      * @since 0.0.1
      */
     public List<AQLOrderByClause> getOrderByClauses()
     {
         return orderByClauses;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    /**
+     * @return a 64 bits hash of this statement, which is the same for equal statements, including across different
+     *     runs and versions of the JVM. It can be used as a compact key in a persistent cache, with a very low risk
+     *     of collision.
+     * @since 0.2.1
+     */
+    public long getFingerprint()
+    {
+        long result = this.fingerprint;
+        if (result == 0) {
+            result = Fingerprint.of(this);
+            this.fingerprint = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return super.equals(o) && this.orderByClauses.equals(((AQLStatement) o).orderByClauses);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = this.hash;
+        if (result == 0) {
+            result = HASH_MULTIPLIER * super.hashCode() + this.orderByClauses.hashCode();
+            this.hash = result;
+        }
+        return result;
+    }
 }
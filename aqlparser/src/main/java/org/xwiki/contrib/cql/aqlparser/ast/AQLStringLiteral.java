@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -41,7 +42,18 @@ public class AQLStringLiteral extends AbstractAQLAtomicValue
      */
     public AQLStringLiteral(AQLParserState parserState, String string)
     {
-        super(parserState);
+        this((int) parserState.getPos(), new AQLLineTable(parserState), string);
+    }
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @param string the (parsed) value of the string literal
+     * @since 0.2.1
+     */
+    public AQLStringLiteral(int offset, AQLLineTable lineTable, String string)
+    {
+        super(offset, lineTable);
         this.string = string;
     }
 
@@ -53,4 +65,29 @@ public class AQLStringLiteral extends AbstractAQLAtomicValue
     {
         return string;
     }
+
+    @Override
+    public <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E
+    {
+        return visitor.visit(this, parameter);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AQLStringLiteral other = (AQLStringLiteral) o;
+        return this.string.equals(other.string);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.string.hashCode();
+    }
 }
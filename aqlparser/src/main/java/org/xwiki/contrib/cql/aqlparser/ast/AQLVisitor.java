@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A visitor of CQL AST nodes, to process nodes according to their type without testing it. A node calls the method
+ * matching its type when passed a visitor with {@link AbstractAQLNode#accept(AQLVisitor, Object)}. The visitor is
+ * responsible for visiting the children of the node, if needed.
+ *
+ * @param <R> the type of the result of the visit
+ * @param <P> the type of the additional parameter passed to the visit methods
+ * @param <E> the type of the exception the visit methods can throw
+ * @version $Id$
+ * @since 0.2.1
+ * @see AbstractAQLVisitor
+ */
+@Unstable
+public interface AQLVisitor<R, P, E extends Exception>
+{
+    /**
+     * @param node the visited statement
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLStatement node, P parameter) throws E;
+
+    /**
+     * @param node the visited group of clauses
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLClausesWithNextOperator node, P parameter) throws E;
+
+    /**
+     * @param node the visited clause with its next operator
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLClauseWithNextOperator node, P parameter) throws E;
+
+    /**
+     * @param node the visited clause operator
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLClauseOperator node, P parameter) throws E;
+
+    /**
+     * @param node the visited atomic clause
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLAtomicClause node, P parameter) throws E;
+
+    /**
+     * @param node the visited atomic clause operator
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLAtomicClauseOperator node, P parameter) throws E;
+
+    /**
+     * @param node the visited IN expression, which can be an {@link AQLIntegerInExpression}
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLInExpression node, P parameter) throws E;
+
+    /**
+     * @param node the visited function call
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLFunctionCall node, P parameter) throws E;
+
+    /**
+     * @param node the visited string literal
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLStringLiteral node, P parameter) throws E;
+
+    /**
+     * @param node the visited number literal
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLNumberLiteral node, P parameter) throws E;
+
+    /**
+     * @param node the visited date literal
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLDateLiteral node, P parameter) throws E;
+
+    /**
+     * @param node the visited boolean literal
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLBooleanLiteral node, P parameter) throws E;
+
+    /**
+     * @param node the visited parameter
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLParameter node, P parameter) throws E;
+
+    /**
+     * @param node the visited order by clause
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit
+     * @throws E if the visit fails
+     */
+    R visit(AQLOrderByClause node, P parameter) throws E;
+}
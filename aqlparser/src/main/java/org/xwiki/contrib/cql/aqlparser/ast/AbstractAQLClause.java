@@ -19,7 +19,7 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
-import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -32,8 +32,8 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public abstract class AbstractAQLClause extends AbstractAQLNode
 {
-    AbstractAQLClause(AQLParserState parserState)
+    AbstractAQLClause(int offset, AQLLineTable lineTable)
     {
-        super(parserState);
+        super(offset, lineTable);
     }
 }
@@ -19,34 +19,104 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
 /**
  * Represents a CQL AST node, produced when parsing a CQL statement.
+ * Nodes are immutable, so a parsed statement can be cached and shared between threads.
+ * Nodes are compared structurally: two nodes are equal if they represent the same CQL, whatever their position, the
+ * spacing and the case of the keywords in the statement.
  * @version $Id$
  * @since 0.0.1
  */
 @Unstable
 public abstract  class AbstractAQLNode
 {
-    private final AQLParserState parserState;
+    private final int offset;
+
+    private final AQLLineTable lineTable;
 
     /**
-     * @param parserState the state of the parser right before starting to parse this node
-     * @since 0.0.1
+     * The line table of shared nodes, whose position is unknown. Like errors not related to a position, they are at
+     * line 0.
+     */
+    static final AQLLineTable UNKNOWN_POSITION = new AQLLineTable(new AQLParserState(0, 0, 0));
+
+    /**
+     * @param offset the 0-indexed position, in characters, of this node in the statement
+     * @param lineTable the line table of the statement, to compute the state of the parser at this node
+     * @since 0.2.1
      */
-    AbstractAQLNode(AQLParserState parserState)
+    AbstractAQLNode(int offset, AQLLineTable lineTable)
     {
-        this.parserState = parserState;
+        this.offset = offset;
+        this.lineTable = lineTable;
     }
 
     /**
-     * @return the state in which the reader was right before parsing this node
+     * @return the state in which the reader was right before parsing this node. It is computed on each call.
      * @since 0.0.1
      */
     public AQLParserState getParserState()
     {
-        return parserState;
+        return this.lineTable.getState(this.offset);
+    }
+
+    /**
+     * @return the 0-indexed position, in characters, of this node in the statement
+     * @since 0.2.1
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @return the line table of the statement, shared by all its nodes
+     * @since 0.2.1
+     */
+    public AQLLineTable getLineTable()
+    {
+        return this.lineTable;
+    }
+
+    /**
+     * Call the method of the given visitor matching the type of this node.
+     *
+     * @param visitor the visitor
+     * @param parameter the additional parameter to pass to the visitor
+     * @param <R> the type of the result of the visit
+     * @param <P> the type of the additional parameter
+     * @param <E> the type of the exception the visitor can throw
+     * @return the result of the visit
+     * @throws E if the visit fails
+     * @since 0.2.1
+     */
+    public abstract <R, P, E extends Exception> R accept(AQLVisitor<R, P, E> visitor, P parameter) throws E;
+
+    /**
+     * @param list the children of a node
+     * @param <T> the type of the children
+     * @return an unmodifiable copy of the given list, of the exact size, so that nodes don't keep the spare capacity
+     *     of the lists they are built from. Unlike {@link List#copyOf(java.util.Collection)}, null elements are kept.
+     */
+    static <T> List<T> immutableCopy(List<? extends T> list)
+    {
+        switch (list.size()) {
+            case 0:
+                return Collections.emptyList();
+            case 1:
+                return Collections.singletonList(list.get(0));
+            default:
+                @SuppressWarnings("unchecked")
+                List<T> copy = (List<T>) Arrays.asList(list.toArray());
+                return Collections.unmodifiableList(copy);
+        }
     }
 }
@@ -19,7 +19,7 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
-import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -31,8 +31,8 @@ import org.xwiki.stability.Unstable;
 @Unstable
 public abstract class AbstractAQLRightHandValue extends AbstractAQLNode
 {
-    AbstractAQLRightHandValue(AQLParserState parserState)
+    AbstractAQLRightHandValue(int offset, AQLLineTable lineTable)
     {
-        super(parserState);
+        super(offset, lineTable);
     }
 }
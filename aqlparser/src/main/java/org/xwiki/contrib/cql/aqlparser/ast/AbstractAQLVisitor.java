@@ -0,0 +1,161 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A visitor of CQL AST nodes in which each visit method falls back to a more general one, so only the cases of
+ * interest need to be implemented: literals, parameters and function calls fall back to
+ * {@link #visitAtomicValue(AbstractAQLAtomicValue, Object)}, atomic clauses and groups of clauses to
+ * {@link #visitClause(AbstractAQLClause, Object)}, and everything to {@link #defaultVisit(AbstractAQLNode, Object)}.
+ *
+ * @param <R> the type of the result of the visit
+ * @param <P> the type of the additional parameter passed to the visit methods
+ * @param <E> the type of the exception the visit methods can throw
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public abstract class AbstractAQLVisitor<R, P, E extends Exception> implements AQLVisitor<R, P, E>
+{
+    /**
+     * Visit a node for which no more specific visit method is implemented.
+     *
+     * @param node the visited node
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit, null by default
+     * @throws E if the visit fails
+     */
+    protected R defaultVisit(AbstractAQLNode node, P parameter) throws E
+    {
+        return null;
+    }
+
+    /**
+     * Visit an atomic value for which no more specific visit method is implemented.
+     *
+     * @param node the visited atomic value
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit, the one of {@link #defaultVisit(AbstractAQLNode, Object)} by default
+     * @throws E if the visit fails
+     */
+    protected R visitAtomicValue(AbstractAQLAtomicValue node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    /**
+     * Visit a clause for which no more specific visit method is implemented.
+     *
+     * @param node the visited clause
+     * @param parameter the additional parameter of the visit
+     * @return the result of the visit, the one of {@link #defaultVisit(AbstractAQLNode, Object)} by default
+     * @throws E if the visit fails
+     */
+    protected R visitClause(AbstractAQLClause node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLStatement node, P parameter) throws E
+    {
+        return visit((AQLClausesWithNextOperator) node, parameter);
+    }
+
+    @Override
+    public R visit(AQLClausesWithNextOperator node, P parameter) throws E
+    {
+        return visitClause(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLClauseWithNextOperator node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLClauseOperator node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLAtomicClause node, P parameter) throws E
+    {
+        return visitClause(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLAtomicClauseOperator node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLInExpression node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLFunctionCall node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLStringLiteral node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLNumberLiteral node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLDateLiteral node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLBooleanLiteral node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLParameter node, P parameter) throws E
+    {
+        return visitAtomicValue(node, parameter);
+    }
+
+    @Override
+    public R visit(AQLOrderByClause node, P parameter) throws E
+    {
+        return defaultVisit(node, parameter);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the fingerprint of a statement, see {@link AQLStatement#getFingerprint()}. It only relies on fully specified
+ * operations (unlike {@link Object#hashCode()} for enums or booleans), so it is stable across runs. It is consistent
+ * with {@link Object#equals(Object)}: the clauses of a group only using AND or only using OR are combined in a way
+ * that doesn't depend on their order.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+final class Fingerprint implements AQLVisitor<Long, Void, RuntimeException>
+{
+    // FNV-1a parameters for strings, and the MurmurHash3 finalizer to mix combined values
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long MIX_MULTIPLIER_1 = 0xff51afd7ed558ccdL;
+
+    private static final long MIX_MULTIPLIER_2 = 0xc4ceb9fe1a85ec53L;
+
+    private static final int MIX_SHIFT = 33;
+
+    // One tag per kind of node, so nodes of different kinds with similar content get different fingerprints
+    private static final long STATEMENT = 1;
+
+    private static final long CLAUSES = 2;
+
+    private static final long CLAUSE = 3;
+
+    private static final long CLAUSE_OPERATOR = 4;
+
+    private static final long ATOM = 5;
+
+    private static final long ATOM_OPERATOR = 6;
+
+    private static final long IN = 7;
+
+    private static final long FUNCTION_CALL = 8;
+
+    private static final long STRING = 9;
+
+    private static final long NUMBER = 10;
+
+    private static final long DATE = 11;
+
+    private static final long BOOLEAN = 12;
+
+    private static final long ORDER_BY = 13;
+
+    private static final long NULL = 14;
+
+    private static final long PARAMETER = 15;
+
+    /**
+     * The fingerprints of the nested groups, computed from the innermost ones so that they are not computed
+     * recursively.
+     */
+    private final Map<AQLClausesWithNextOperator, Long> groupFingerprints = new IdentityHashMap<>();
+
+    private Fingerprint()
+    {
+    }
+
+    static long of(AQLStatement statement)
+    {
+        Fingerprint instance = new Fingerprint();
+        for (AQLClausesWithNextOperator group : AQLClausesWithNextOperator.getGroupsBottomUp(statement)) {
+            if (group != statement) {
+                instance.groupFingerprints.put(group, combine(CLAUSES, instance.clauses(group)));
+            }
+        }
+
+        long fingerprint = statement.accept(instance, null);
+        // 0 is reserved to mean that the fingerprint is not computed yet
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    @Override
+    public Long visit(AQLStatement node, Void parameter)
+    {
+        long fingerprint = combine(STATEMENT, clauses(node));
+        for (AQLOrderByClause orderByClause : node.getOrderByClauses()) {
+            fingerprint = combine(fingerprint, orderByClause.accept(this, null));
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public Long visit(AQLClausesWithNextOperator node, Void parameter)
+    {
+        Long fingerprint = this.groupFingerprints.get(node);
+        return fingerprint == null ? combine(CLAUSES, clauses(node)) : fingerprint;
+    }
+
+    @Override
+    public Long visit(AQLClauseWithNextOperator node, Void parameter)
+    {
+        return combine(combine(CLAUSE, of(node.getClause())), of(node.getNextOperator()));
+    }
+
+    @Override
+    public Long visit(AQLClauseOperator node, Void parameter)
+    {
+        return combine(combine(CLAUSE_OPERATOR, of(node.isAnd())), of(node.isNot()));
+    }
+
+    @Override
+    public Long visit(AQLAtomicClause node, Void parameter)
+    {
+        return combine(combine(combine(ATOM, of(node.getField())), of(node.getOp())), of(node.getRight()));
+    }
+
+    @Override
+    public Long visit(AQLAtomicClauseOperator node, Void parameter)
+    {
+        return combine(ATOM_OPERATOR, of(node.getOperator().name()));
+    }
+
+    @Override
+    public Long visit(AQLInExpression node, Void parameter)
+    {
+        long fingerprint = IN;
+        if (node instanceof AQLIntegerInExpression) {
+            // Same as for the list of values, without creating their nodes
+            AQLIntegerInExpression integers = (AQLIntegerInExpression) node;
+            for (int i = 0; i < integers.size(); i++) {
+                fingerprint = combine(fingerprint, combine(NUMBER, of(Long.toString(integers.getLong(i)))));
+            }
+        } else {
+            fingerprint = combine(fingerprint, node.getValues());
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public Long visit(AQLFunctionCall node, Void parameter)
+    {
+        return combine(combine(FUNCTION_CALL, of(node.getFunctionName())), node.getArguments());
+    }
+
+    @Override
+    public Long visit(AQLStringLiteral node, Void parameter)
+    {
+        return combine(STRING, of(node.getString()));
+    }
+
+    @Override
+    public Long visit(AQLNumberLiteral node, Void parameter)
+    {
+        return combine(NUMBER, of(node.getNumber()));
+    }
+
+    @Override
+    public Long visit(AQLDateLiteral node, Void parameter)
+    {
+        long fingerprint = combine(DATE, node.getYear());
+        fingerprint = combine(fingerprint, node.getMonth());
+        fingerprint = combine(fingerprint, node.getDay());
+        fingerprint = combine(fingerprint, node.getHours());
+        return combine(fingerprint, node.getMinutes());
+    }
+
+    @Override
+    public Long visit(AQLBooleanLiteral node, Void parameter)
+    {
+        return combine(BOOLEAN, of(node.isTrue()));
+    }
+
+    @Override
+    public Long visit(AQLParameter node, Void parameter)
+    {
+        return combine(PARAMETER, node.getName() == null ? node.getIndex() : of(node.getName()));
+    }
+
+    @Override
+    public Long visit(AQLOrderByClause node, Void parameter)
+    {
+        return combine(combine(ORDER_BY, of(node.getField())), of(node.isDesc()));
+    }
+
+    private long clauses(AQLClausesWithNextOperator node)
+    {
+        int operator = node.getCommutativeOperator();
+        if (operator == AQLClausesWithNextOperator.ORDERED) {
+            return combine(operator, node.getClausesWithNextOp());
+        }
+
+        // A sum doesn't depend on the order of the clauses, and unlike a xor, repeated clauses don't cancel out
+        long sum = 0;
+        for (AQLClauseWithNextOperator clauseWithNextOp : node.getClausesWithNextOp()) {
+            sum += mix(of(clauseWithNextOp.getClause()));
+        }
+        return combine(operator, sum);
+    }
+
+    private long combine(long fingerprint, List<? extends AbstractAQLNode> nodes)
+    {
+        long result = fingerprint;
+        for (AbstractAQLNode node : nodes) {
+            result = combine(result, of(node));
+        }
+        return result;
+    }
+
+    private long of(AbstractAQLNode node)
+    {
+        return node == null ? NULL : node.accept(this, null);
+    }
+
+    private static long of(boolean value)
+    {
+        return value ? 1 : 0;
+    }
+
+    private static long of(String string)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long combine(long fingerprint, long value)
+    {
+        return mix(fingerprint * FNV_PRIME + value);
+    }
+
+    private static long mix(long value)
+    {
+        long k = value;
+        k ^= k >>> MIX_SHIFT;
+        k *= MIX_MULTIPLIER_1;
+        k ^= k >>> MIX_SHIFT;
+        k *= MIX_MULTIPLIER_2;
+        k ^= k >>> MIX_SHIFT;
+        return k;
+    }
+}
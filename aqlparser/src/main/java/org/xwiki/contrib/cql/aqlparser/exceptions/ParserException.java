@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.exceptions;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -41,10 +43,20 @@ public class ParserException extends Exception
 
     private static final Pattern PARSE_PREFIX_PATTERN = Pattern.compile("^(maybeParse|parse)(End|Remaining)?");
 
+    private static final String PLACEHOLDER = "{}";
+
     private static final Pattern CAMEL_WORD_PATTERN = Pattern.compile("[A-Z]?[a-z]+");
 
     private final AQLParserState parserState;
 
+    private final List<String> path;
+
+    private final String messageTemplate;
+
+    private final transient Object[] parameters;
+
+    private String message;
+
     /**
      * @param message an explanation of the parse error
      * @param parserState the state corresponding to the point at which the error happens
@@ -54,6 +66,32 @@ public class ParserException extends Exception
     {
         super(message + ' ' + '(' + parserState + ')');
         this.parserState = parserState;
+        this.path = null;
+        this.messageTemplate = null;
+        this.parameters = null;
+    }
+
+    /**
+     * Create an exception whose message is only formatted when it is requested. This is cheap enough for parse
+     * errors to be reported without slowing down parsing.
+     *
+     * @param messageTemplate an explanation of the parse error, in which each {} is replaced by the corresponding
+     *     parameter
+     * @param parameters the parameters of the message
+     * @param parserState the state corresponding to the point at which the error happens
+     * @param path the user-friendly parsing path that lead to this exception, from the outermost element
+     * @param writableStackTrace whether the stack trace should be filled in. Filling it is costly and only useful for
+     *     debugging the parser.
+     * @since 0.2.1
+     */
+    public ParserException(String messageTemplate, Object[] parameters, AQLParserState parserState, List<String> path,
+        boolean writableStackTrace)
+    {
+        super(null, null, false, writableStackTrace);
+        this.parserState = parserState;
+        this.path = path;
+        this.messageTemplate = messageTemplate;
+        this.parameters = parameters;
     }
 
     /**
@@ -65,6 +103,9 @@ public class ParserException extends Exception
     {
         super("An unexpected error happened (" + parserState + ')', cause);
         this.parserState = parserState;
+        this.path = null;
+        this.messageTemplate = null;
+        this.parameters = null;
     }
 
     /**
@@ -77,13 +118,37 @@ public class ParserException extends Exception
     {
         super(message + ' ' + '(' + parserState + ')', cause);
         this.parserState = parserState;
+        this.path = null;
+        this.messageTemplate = null;
+        this.parameters = null;
     }
 
     @Override
     public String getMessage()
     {
-        String path = String.join(" > ", getPath());
-        return super.getMessage() + (path.isEmpty() ? "" : ". Path: " + path);
+        if (this.message == null) {
+            String baseMessage = this.messageTemplate == null
+                ? super.getMessage()
+                : format(this.messageTemplate, this.parameters) + ' ' + '(' + this.parserState + ')';
+            String joinedPath = String.join(" > ", getPath());
+            this.message = baseMessage + (joinedPath.isEmpty() ? "" : ". Path: " + joinedPath);
+        }
+        return this.message;
+    }
+
+    private static String format(String template, Object[] parameters)
+    {
+        StringBuilder builder = new StringBuilder(template.length());
+        int start = 0;
+        for (Object parameter : parameters) {
+            int placeholder = template.indexOf(PLACEHOLDER, start);
+            if (placeholder == -1) {
+                break;
+            }
+            builder.append(template, start, placeholder).append(parameter);
+            start = placeholder + PLACEHOLDER.length();
+        }
+        return builder.append(template, start, template.length()).toString();
     }
 
     /**
@@ -91,8 +156,12 @@ public class ParserException extends Exception
      */
     private List<String> getPath()
     {
+        if (this.path != null) {
+            return this.path;
+        }
+
         StackTraceElement[] stackTrace = getStackTrace();
-        List<String> path = new ArrayList<>(stackTrace.length);
+        List<String> stackPath = new ArrayList<>(stackTrace.length);
 
         String lastElement = "";
         for (StackTraceElement line : stackTrace) {
@@ -101,13 +170,20 @@ public class ParserException extends Exception
                 String element = PARSE_PREFIX_PATTERN.matcher(method).replaceFirst("")
                     .replace("WithNextOperator", "");
                 if (!element.isEmpty() && !method.equals(element) && !lastElement.equals(element)) {
-                    path.add(0, camelToSpaces(element));
+                    stackPath.add(0, camelToSpaces(element));
                     lastElement = element;
                 }
             }
         }
 
-        return path;
+        return stackPath;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        // The parameters of the message are not serialized, so the message needs to be formatted before.
+        getMessage();
+        out.defaultWriteObject();
     }
 
     /**
@@ -19,188 +19,276 @@
  */
 package org.xwiki.contrib.cql.aqlparser.internal;
 
-import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import java.util.Arrays;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
-import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 
 /**
+ * A cursor over the characters of a CQL statement.
+ * <p>
+ * The statement is read in place using an offset: reading a character moves the offset forward and unreading moves it
+ * back, so backtracking never copies or buffers anything. The offsets at which lines start are recorded while reading,
+ * so the state (line and column) of any offset that has already been read can be computed.
+ * <p>
+ * The statement can be a range of a bigger character sequence, which is not copied. Offsets are relative to the
+ * beginning of this range.
+ *
  * @version $Id$
  * @since 0.0.1
  */
-class AQLReader extends PushbackReader
+class AQLReader
 {
-    private long pos;
+    private final CharSequence input;
+
+    /**
+     * The offset, in the input, of the range to read.
+     */
+    private final int base;
+
+    private final int start;
+
+    private int end;
 
-    private long line = 1;
+    private int pos;
 
-    private long previousCol = 1;
+    private int[] lineStarts = new int[4];
 
-    private long col = 1;
+    private int lineCount = 1;
 
     AQLReader(String s)
     {
-        super(new StringReader(s), s.length());
+        this(s, 0);
     }
 
-    @Override
-    public int read() throws IOException
+    /**
+     * @param s the string to read
+     * @param start the offset of the first character to read in s
+     */
+    AQLReader(String s, int start)
     {
-        int c = super.read();
+        this(s, 0, s.length(), start);
+    }
 
-        if (c == -1) {
+    /**
+     * @param s the character sequence containing the statement to read, which must not change while it is read
+     * @param from the offset of the statement in s
+     * @param to the offset after the statement in s
+     * @param start the offset of the first character to read, relative to the beginning of the statement
+     */
+    AQLReader(CharSequence s, int from, int to, int start)
+    {
+        this.input = s;
+        this.base = from;
+        this.start = start;
+        this.end = to - from;
+        this.pos = start;
+        this.lineStarts[0] = start;
+    }
+
+    public int read()
+    {
+        if (pos >= end) {
             return -1;
         }
 
-        pos++;
+        char c = input.charAt(base + pos++);
         if (c == '\n') {
-            line++;
-            previousCol = col;
-            col = 1;
-        } else {
-            col++;
+            newLine(pos);
         }
 
         return c;
     }
 
-    @Override
-    public void unread(int c) throws IOException
+    /**
+     * Move back before the last read character.
+     *
+     * @param c the last read character, or -1 if the end was reached, in which case nothing happens
+     */
+    public void unread(int c)
     {
-        if (c == -1) {
-            return;
+        if (c != -1 && pos > start) {
+            pos--;
         }
+    }
 
-        super.unread(c);
-        if (c == '\n') {
-            line--;
-            col = previousCol;
-        } else {
-            col--;
-        }
-        pos--;
+    public int peek()
+    {
+        return pos < end ? input.charAt(base + pos) : -1;
     }
 
-    @Override
-    public void unread(char[] cbuf, int off, int len) throws IOException
+    /**
+     * @return the character at the given offset
+     * @param offset the offset of the character, which must be between the start and the end of the reader
+     */
+    public char charAt(int offset)
     {
-        for (int i = off + len - 1; i >= off; i--) {
-            unread(cbuf[i]);
-        }
+        return input.charAt(base + offset);
     }
 
-    public int peek() throws IOException
+    /**
+     * @return the characters between the two given offsets
+     * @param from the offset of the first character
+     * @param to the offset after the last character
+     */
+    public String substring(int from, int to)
     {
-        int c = read();
-        unread(c);
-        return c;
+        // For strings, subSequence is substring. For other sequences, only the given characters are copied.
+        return input.subSequence(base + from, base + to).toString();
     }
 
-    public String readWordOneOf(boolean requireWhiteOrEndAfter, String... words) throws IOException, ParserException
+    /**
+     * Read the given word if the next characters match it, ignoring the case.
+     *
+     * @param word the word to read. It must not contain new lines.
+     * @return whether the word has been read
+     */
+    public boolean readWord(String word)
     {
-        skipWhite();
-        for (String word : words) {
-            if (readWord(word, requireWhiteOrEndAfter)) {
-                return word;
+        int n = word.length();
+        if (n > end - pos) {
+            return false;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (Character.toLowerCase(word.charAt(i)) != Character.toLowerCase(input.charAt(base + pos + i))) {
+                return false;
             }
         }
 
-        return null;
+        pos += n;
+        return true;
     }
 
-    public boolean readWord(String word) throws IOException, ParserException
+    public boolean skipAlphaNumericWord()
     {
-        return readWord(word, true);
-    }
+        if (pos == end || !Character.isAlphabetic(input.charAt(base + pos))) {
+            return false;
+        }
 
-    public boolean readWord(String word, boolean requireWhiteOrEndAfter) throws IOException, ParserException
-    {
-        return readWord(word, requireWhiteOrEndAfter, ",(");
+        do {
+            pos++;
+        } while (pos < end && Character.isLetterOrDigit(input.charAt(base + pos)));
+
+        return true;
     }
 
-    public boolean readWord(String word, boolean requireWhiteOrEndAfter, String endChars)
-        throws IOException, ParserException
+    public void skipWhite()
     {
-        skipWhite();
-        for (int i = 0, n = word.length(); i < n; i++) {
-            char expectedChar = word.charAt(i);
-            if (Character.isWhitespace(expectedChar)) {
-                throw new ParserException(
-                    "readWord can't be called with whitespace characters, please use a call per word.", getState());
+        while (pos < end) {
+            char c = input.charAt(base + pos);
+            if (!Character.isWhitespace(c)) {
+                return;
             }
-            int actualChar = read();
-            if (Character.toLowerCase(expectedChar) != Character.toLowerCase(actualChar)) {
-                unread(actualChar);
-                for (int j = i - 1; j >= 0; j--) {
-                    unread(word.charAt(j));
-                }
-                return false;
+
+            pos++;
+            if (c == '\n') {
+                newLine(pos);
             }
         }
+    }
+
+    public boolean isNextCharWhiteOrEnd(String endChars)
+    {
+        if (pos >= end) {
+            return true;
+        }
 
-        if (!requireWhiteOrEndAfter || isNextCharWhiteOrEnd(endChars)) {
+        char c = input.charAt(base + pos);
+        return Character.isWhitespace(c) || (endChars != null && endChars.indexOf(c) != -1);
+    }
+
+    public boolean maybeEat(char expectedChar)
+    {
+        if (peek() == expectedChar) {
+            read();
             return true;
         }
 
-        unread(word.toCharArray());
         return false;
     }
 
-    public String readAlphaNumericWord() throws IOException
+    /**
+     * @return the offset of the next character to read
+     */
+    public int getPos()
     {
-        StringBuilder word = new StringBuilder();
-        int c = read();
-        if (!Character.isAlphabetic(c)) {
-            unread(c);
-            return "";
-        }
-        word.append((char) c);
+        return pos;
+    }
 
-        while (true) {
-            c = read();
-            if (!Character.isLetterOrDigit(c)) {
-                unread(c);
-                break;
-            }
-            word.append((char) c);
-        }
-        return word.toString();
+    /**
+     * Move to the given offset.
+     *
+     * @param offset the offset of the next character to read
+     */
+    public void seek(int offset)
+    {
+        this.pos = offset;
+    }
+
+    /**
+     * @return the offset after the last character to read
+     */
+    public int getEnd()
+    {
+        return end;
     }
 
-    // FIXME check that unread(array) works well with pos, line, cur
+    /**
+     * Restrict reading to the characters before the given offset, which allows reading a part of the statement (like
+     * the content of a quoted string) in place as if it was the whole input.
+     *
+     * @param offset the offset after the last character to read, at most the length of the statement
+     */
+    public void setEnd(int offset)
+    {
+        this.end = offset;
+    }
 
-    public void skipWhite() throws IOException
+    /**
+     * @return the number of characters left to read
+     */
+    public int remaining()
     {
-        int c = read();
-        if (Character.isWhitespace(c)) {
-            skipWhite();
-        } else {
-            unread(c);
-        }
+        return end - pos;
     }
 
-    public boolean isNextCharWhiteOrEnd(String endChars) throws IOException
+    AQLParserState getState()
     {
-        int c = read();
-        unread(c);
-        return c == -1 || Character.isWhitespace(c) || (endChars != null && endChars.indexOf(c) != -1);
+        return getState(pos);
     }
 
-    public boolean maybeEat(char expectedChar) throws IOException
+    /**
+     * @return the state corresponding to the given offset, which must have been read already
+     * @param offset the offset
+     */
+    AQLParserState getState(int offset)
     {
-        int c = read();
-        if (c == expectedChar) {
-            return true;
+        int line = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        if (line < 0) {
+            // the offset is not at the beginning of a line, binarySearch returns (-(insertion point) - 1)
+            line = -line - 2;
         }
 
-        unread(c);
-        return false;
+        return new AQLParserState(offset, line + 1L, offset - lineStarts[line] + 1L);
     }
 
-    AQLParserState getState()
+    /**
+     * @return the line table of the characters read so far
+     */
+    AQLLineTable getLineTable()
+    {
+        return new AQLLineTable(Arrays.copyOf(lineStarts, lineCount));
+    }
+
+    private void newLine(int lineStart)
     {
-        return new AQLParserState(pos, line, col);
+        // When going back and reading again, the line may already be known
+        if (lineStart > lineStarts[lineCount - 1]) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+            lineStarts[lineCount++] = lineStart;
+        }
     }
 }
@@ -0,0 +1,470 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.internal;
+
+import java.util.Arrays;
+
+/**
+ * Splits a CQL statement into tokens, in one pass.
+ * <p>
+ * Tokens are stored in a compact int array: each token takes three consecutive ints, its type and the offsets of its
+ * first character and of the character following its last character. White spaces are not tokens. The last token
+ * always has the type {@link #EOF}.
+ * <p>
+ * The lexical rules of CQL slightly depend on the context (e.g. a field name stops before a '_' while a value doesn't),
+ * so the parser may need to split a token. In this case, the tokens following the split point are computed again with
+ * {@link #resync(int, int)}. The parser never goes back to a previous token, so the tokens computed again may overwrite
+ * the tokens before the split point instead of shifting the following ones.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+public final class AQLTokenizer
+{
+    /**
+     * The end of the statement.
+     */
+    public static final int EOF = 0;
+
+    /**
+     * A word starting with a letter and containing letters, digits, '_' and '.', which is not a keyword.
+     */
+    public static final int WORD = 1;
+
+    /**
+     * Something starting with a digit or a '.', up to the next white space, comma, parenthesis or the end of the
+     * statement. This is a number, a date or the beginning of a date, or some value that looks like a number at first.
+     */
+    public static final int NUMBER = 2;
+
+    /**
+     * A quoted string, including its quotes.
+     */
+    public static final int STRING = 3;
+
+    /**
+     * A quoted string which is not closed before the end of the statement.
+     */
+    public static final int UNTERMINATED_STRING = 4;
+
+    /**
+     * A quoted string which is not closed before the end of the statement, and whose last character is an escaping
+     * '\'.
+     */
+    public static final int UNTERMINATED_ESCAPE = 5;
+
+    /**
+     * '('.
+     */
+    public static final int OPENING_PARENTHESIS = 6;
+
+    /**
+     * ')'.
+     */
+    public static final int CLOSING_PARENTHESIS = 7;
+
+    /**
+     * ','.
+     */
+    public static final int COMMA = 8;
+
+    /**
+     * '='.
+     */
+    public static final int OPERATOR_EQ = 9;
+
+    /**
+     * '!='.
+     */
+    public static final int OPERATOR_NEQ = 10;
+
+    /**
+     * '&gt;'.
+     */
+    public static final int OPERATOR_GT = 11;
+
+    /**
+     * '&gt;='.
+     */
+    public static final int OPERATOR_GTE = 12;
+
+    /**
+     * '&lt;'.
+     */
+    public static final int OPERATOR_LT = 13;
+
+    /**
+     * '&lt;='.
+     */
+    public static final int OPERATOR_LTE = 14;
+
+    /**
+     * '~'.
+     */
+    public static final int OPERATOR_CONTAINS = 15;
+
+    /**
+     * '!~'.
+     */
+    public static final int OPERATOR_DOES_NOT_CONTAIN = 16;
+
+    /**
+     * The AND keyword. Keywords are case-insensitive, and are only recognized when followed by a white space, a
+     * comma, an opening parenthesis or the end of the statement.
+     */
+    public static final int KEYWORD_AND = 17;
+
+    /**
+     * The OR keyword.
+     */
+    public static final int KEYWORD_OR = 18;
+
+    /**
+     * The NOT keyword.
+     */
+    public static final int KEYWORD_NOT = 19;
+
+    /**
+     * The IN keyword.
+     */
+    public static final int KEYWORD_IN = 20;
+
+    /**
+     * The ORDER keyword.
+     */
+    public static final int KEYWORD_ORDER = 21;
+
+    /**
+     * The BY keyword.
+     */
+    public static final int KEYWORD_BY = 22;
+
+    /**
+     * The ASC keyword.
+     */
+    public static final int KEYWORD_ASC = 23;
+
+    /**
+     * The DESC keyword.
+     */
+    public static final int KEYWORD_DESC = 24;
+
+    /**
+     * Any other character.
+     */
+    public static final int OTHER = 25;
+
+    // In the same order as the KEYWORD_* token types.
+    private static final String[] KEYWORDS = {"and", "or", "not", "in", "order", "by", "asc", "desc"};
+
+    private static final int MIN_KEYWORD_LENGTH = 2;
+
+    private static final int MAX_KEYWORD_LENGTH = 5;
+
+    private static final int LETTER_COUNT = 26;
+
+    /**
+     * The keyword token type, or {@link #WORD}, by word length and lower case last letter: no two keywords have both
+     * the same length and the same last letter, so a word can only be one keyword, found without trying each of them.
+     */
+    private static final int[] KEYWORD_CANDIDATES =
+        new int[(MAX_KEYWORD_LENGTH - MIN_KEYWORD_LENGTH + 1) * LETTER_COUNT];
+
+    static {
+        Arrays.fill(KEYWORD_CANDIDATES, WORD);
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            String keyword = KEYWORDS[i];
+            KEYWORD_CANDIDATES[getKeywordCandidateIndex(keyword.length(), keyword.charAt(keyword.length() - 1))] =
+                KEYWORD_AND + i;
+        }
+    }
+
+    private static final int TOKEN_SIZE = 3;
+
+    private static final int AVERAGE_TOKEN_LENGTH = 4;
+
+    private static final String KEYWORD_END_CHARS = ",(";
+
+    private final AQLReader reader;
+
+    private int[] tokens;
+
+    private int count;
+
+    AQLTokenizer(AQLReader reader)
+    {
+        this.reader = reader;
+        // A rough estimate, which avoids growing the array for most statements.
+        this.tokens = new int[TOKEN_SIZE * (reader.remaining() / AVERAGE_TOKEN_LENGTH + 1)];
+        tokenize();
+    }
+
+    /**
+     * @return the number of tokens, including the final {@link #EOF} token
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return the type of the given token
+     * @param index the index of the token
+     */
+    public int getType(int index)
+    {
+        return tokens[TOKEN_SIZE * index];
+    }
+
+    /**
+     * @return the offset of the first character of the given token
+     * @param index the index of the token
+     */
+    public int getStart(int index)
+    {
+        return tokens[TOKEN_SIZE * index + 1];
+    }
+
+    /**
+     * @return the offset of the character following the given token
+     * @param index the index of the token
+     */
+    public int getEnd(int index)
+    {
+        return tokens[TOKEN_SIZE * index + 2];
+    }
+
+    /**
+     * Find the token at the given offset, splitting the token containing this offset if needed. This is used when
+     * the parser reads characters by itself, from the beginning of the given token.
+     *
+     * @param index the index of the token from which the parser read characters by itself
+     * @param offset the offset of the next character to parse
+     * @return the index of the first token starting at or after the given offset. The tokens before this index must
+     *     not be used anymore.
+     */
+    int resync(int index, int offset)
+    {
+        int i = index;
+        while (getType(i) != EOF && getEnd(i) <= offset) {
+            i++;
+        }
+
+        if (getStart(i) < offset) {
+            // The offset is in the middle of a token, the next tokens need to be computed again from there. A token
+            // only depends on the characters from its start, so once a computed token starts where an old token
+            // starts, the old tokens from there are kept. This always happens at the latest with the EOF token.
+            reader.seek(offset);
+            int[] split = new int[TOKEN_SIZE * 2];
+            int splitCount = 0;
+            int next = i + 1;
+            while (true) {
+                reader.skipWhite();
+                int start = reader.getPos();
+                while (next < count && getStart(next) < start) {
+                    next++;
+                }
+                if (next < count && getStart(next) == start) {
+                    break;
+                }
+                if (TOKEN_SIZE * splitCount == split.length) {
+                    split = Arrays.copyOf(split, split.length * 2);
+                }
+                int type = readToken();
+                split[TOKEN_SIZE * splitCount] = type;
+                split[TOKEN_SIZE * splitCount + 1] = start;
+                split[TOKEN_SIZE * splitCount + 2] = reader.getPos();
+                splitCount++;
+                if (type == EOF) {
+                    next = count;
+                    break;
+                }
+            }
+            i = replace(next, split, splitCount);
+        }
+
+        return i;
+    }
+
+    /**
+     * Replace the tokens before the given index, starting with the split token, by the given tokens. They are put right
+     * before the kept tokens, over the tokens already parsed if there are more of them, so that the kept tokens don't
+     * have to be moved.
+     *
+     * @return the index of the first replacement token
+     */
+    private int replace(int to, int[] replacement, int replacementCount)
+    {
+        int first = to - replacementCount;
+        if (first < 0) {
+            // Not enough tokens were parsed yet, the kept tokens are moved to make room
+            int shift = -first;
+            if (TOKEN_SIZE * (count + shift) > tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, TOKEN_SIZE * (count + shift)));
+            }
+            System.arraycopy(tokens, TOKEN_SIZE * to, tokens, TOKEN_SIZE * (to + shift), TOKEN_SIZE * (count - to));
+            count += shift;
+            first = 0;
+        }
+        System.arraycopy(replacement, 0, tokens, TOKEN_SIZE * first, TOKEN_SIZE * replacementCount);
+        return first;
+    }
+
+    private void tokenize()
+    {
+        int type;
+        do {
+            reader.skipWhite();
+            int start = reader.getPos();
+            type = readToken();
+            add(type, start, reader.getPos());
+        } while (type != EOF);
+    }
+
+    private int readToken()
+    {
+        int c = reader.read();
+        switch (c) {
+            case -1:
+                return EOF;
+            case '(':
+                return OPENING_PARENTHESIS;
+            case ')':
+                return CLOSING_PARENTHESIS;
+            case ',':
+                return COMMA;
+            case '=':
+                return OPERATOR_EQ;
+            case '~':
+                return OPERATOR_CONTAINS;
+            case '!':
+                if (reader.maybeEat('=')) {
+                    return OPERATOR_NEQ;
+                }
+                return reader.maybeEat('~') ? OPERATOR_DOES_NOT_CONTAIN : OTHER;
+            case '>':
+                return reader.maybeEat('=') ? OPERATOR_GTE : OPERATOR_GT;
+            case '<':
+                return reader.maybeEat('=') ? OPERATOR_LTE : OPERATOR_LT;
+            case '"':
+            case '\'':
+                return readRemainingString(c);
+            default:
+                if (Character.isDigit(c) || c == '.') {
+                    readRemainingNumber();
+                    return NUMBER;
+                }
+
+                if (Character.isAlphabetic(c)) {
+                    return readRemainingWord(reader.getPos() - 1);
+                }
+
+                return OTHER;
+        }
+    }
+
+    private int readRemainingString(int quote)
+    {
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                return UNTERMINATED_STRING;
+            }
+
+            if (c == '\\') {
+                if (reader.read() == -1) {
+                    return UNTERMINATED_ESCAPE;
+                }
+            } else if (c == quote) {
+                return STRING;
+            }
+        }
+    }
+
+    private void readRemainingNumber()
+    {
+        int c = reader.peek();
+        while (c != -1 && !Character.isWhitespace(c) && c != ',' && c != '(' && c != ')') {
+            reader.read();
+            c = reader.peek();
+        }
+    }
+
+    private int readRemainingWord(int start)
+    {
+        int c = reader.peek();
+        while (c == '_' || c == '.' || Character.isLetterOrDigit(c)) {
+            reader.read();
+            c = reader.peek();
+        }
+
+        int length = reader.getPos() - start;
+        if (length < MIN_KEYWORD_LENGTH || length > MAX_KEYWORD_LENGTH
+            || !reader.isNextCharWhiteOrEnd(KEYWORD_END_CHARS))
+        {
+            return WORD;
+        }
+
+        int index = getKeywordCandidateIndex(length, reader.charAt(start + length - 1));
+        if (index == -1) {
+            return WORD;
+        }
+
+        int candidate = KEYWORD_CANDIDATES[index];
+        return candidate != WORD && isKeyword(KEYWORDS[candidate - KEYWORD_AND], start, length) ? candidate : WORD;
+    }
+
+    /**
+     * @return the index of the keyword candidate for a word of the given length ending with the given character, or
+     *     -1 if no keyword ends with this character
+     */
+    private static int getKeywordCandidateIndex(int length, char last)
+    {
+        int letter = Character.toLowerCase(last) - 'a';
+        if (letter < 0 || letter >= LETTER_COUNT) {
+            return -1;
+        }
+        return (length - MIN_KEYWORD_LENGTH) * LETTER_COUNT + letter;
+    }
+
+    private boolean isKeyword(String keyword, int start, int length)
+    {
+        // The length and the last character are already known to match
+        for (int i = 0; i < length - 1; i++) {
+            if (keyword.charAt(i) != Character.toLowerCase(reader.charAt(start + i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void add(int type, int start, int end)
+    {
+        int i = TOKEN_SIZE * count;
+        if (i == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        tokens[i] = type;
+        tokens[i + 1] = start;
+        tokens[i + 2] = end;
+        count++;
+    }
+}
@@ -20,13 +20,20 @@
 package org.xwiki.contrib.cql.aqlparser.internal;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
+import org.xwiki.contrib.cql.aqlparser.AQLLineTable;
 import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.AQLParseResult;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
@@ -37,6 +44,7 @@ import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLOrderByClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
@@ -44,19 +52,21 @@ import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
 
 /**
  * The class that does the actual parsing.
+ * The statement is first split into tokens by {@link AQLTokenizer}, the parser then works over these tokens. Literal
+ * numbers, dates and fields are read directly from the characters of the statement.
+ * Nested clauses are handled with an explicit stack instead of recursive calls, so deeply nested statements don't
+ * consume call stack. The grammar elements being parsed are tracked to give the path of parse errors.
+ * When parsing with recovery, errors are recorded instead of thrown and parsing goes on from the next clause boundary.
  * @version $Id$
  * @since 0.0.1
  */
 public class Parser
 {
-    private static final String AND = "and";
-
-    private static final String OR = "or";
-
     private static final String NOT = "not";
 
     private static final String IN = "in";
@@ -65,31 +75,181 @@ public class Parser
 
     private static final String FALSE = "false";
 
-    private static final Map<String, AQLOperator> ATOM_OPS_MAP = new LinkedHashMap<>();
+    private static final String ATOM_OPS = "=, !=, >=, <=, >, <, ~, !~";
+
+    private static final String CLAUSES = "clauses";
+
+    private static final String CLAUSE = "clause";
+
+    private static final String ATOM = "atom";
+
+    private static final String FIELD = "field";
+
+    private static final String ATOM_OPERATOR = "atom operator";
+
+    private static final String IN_EXPR = "in expr";
+
+    private static final String ATOMIC_VALUE = "atomic value";
+
+    private static final String FUNCTION_CALL_ARGUMENTS = "function call arguments";
+
+    private static final String NUMBER_OR_DATE = "number or date";
+
+    private static final String DATE = "date";
+
+    private static final String DATE_PART = "date part";
+
+    private static final String STRING = "string";
+
+    private static final String ORDER_BY_CLAUSES = "order by clauses";
+
+    private static final String ORDER_BY_CLAUSE = "order by clause";
+
+    /**
+     * The fields of CQL, to share their names between the parsed statements. Other field names come from the user and
+     * are not shared, so that they don't fill a global pool.
+     */
+    private static final Map<String, String> KNOWN_FIELDS = new HashMap<>();
+
     static {
-        ATOM_OPS_MAP.put("=", AQLOperator.EQ);
-        ATOM_OPS_MAP.put("!=", AQLOperator.NEQ);
-        ATOM_OPS_MAP.put(">=", AQLOperator.GTE);
-        ATOM_OPS_MAP.put("<=", AQLOperator.LTE);
-        ATOM_OPS_MAP.put(">", AQLOperator.GT);
-        ATOM_OPS_MAP.put("<", AQLOperator.LT);
-        ATOM_OPS_MAP.put("~", AQLOperator.CONTAINS);
-        ATOM_OPS_MAP.put("!~", AQLOperator.DOES_NOT_CONTAIN);
+        for (String field : Arrays.asList("ancestor", "container", "content", "contributor", "created", "creator",
+            "favourite", "favorite", "id", "label", "lastmodified", "macro", "mention", "parent", "space",
+            "space.category", "space.desc", "space.key", "space.title", "space.type", "text", "title", "type", "user",
+            "user.accountid", "user.fullname", "watcher"))
+        {
+            KNOWN_FIELDS.put(field, field);
+        }
     }
 
-    private static final String[] ATOM_OPS = ATOM_OPS_MAP.keySet().toArray(new String[0]);
+    private static final int INITIAL_PATH_CAPACITY = 16;
+
+    private static final int INITIAL_IN_CAPACITY = 8;
+
+    /**
+     * Any integer of this many digits fits in a long.
+     */
+    private static final int MAX_INTEGER_DIGITS = 18;
+
+    private static final int DECIMAL = 10;
 
     private final AQLReader reader;
 
+    private final AQLTokenizer tokens;
+
+    private final AQLLineTable lineTable;
+
+    private final int maxDepth;
+
+    private final int maxClauses;
+
+    private final int maxInValues;
+
+    private final int maxFunctionArguments;
+
+    private final boolean debug;
+
+    private final boolean operatorPositions;
+
+    /**
+     * The number of atomic clauses parsed so far.
+     */
+    private int clauseCount;
+
+    /**
+     * The index of the current token.
+     */
+    private int token;
+
+    /**
+     * The offset at which the parser is in the statement. It is used for positioning nodes and errors.
+     */
+    private int pos;
+
+    /**
+     * The grammar elements being parsed, from the outermost one.
+     */
+    private String[] path = new String[INITIAL_PATH_CAPACITY];
+
+    private int pathLength;
+
+    /**
+     * Whether a quoted string is being parsed as a date. In this case, date parsing failures are recorded in
+     * {@link #dateFailed} instead of being reported as parse errors.
+     */
+    private boolean tryingDate;
+
+    private boolean dateFailed;
+
+    /**
+     * The errors found so far when parsing with recovery, null when parsing stops at the first error.
+     */
+    private List<ParserException> errors;
+
+    /**
+     * Whether parameters are allowed in place of values, which is the case when preparing a statement.
+     */
+    private boolean parametersAllowed;
+
+    private int positionalParameterCount;
+
     /**
      * @param aqlStatement the CQL statement to parse.
      */
     public Parser(String aqlStatement) throws ParserException
     {
-        if (aqlStatement.isEmpty()) {
-            throw new ParserException("The CQL expression is empty", new AQLParserState(0, 0, 0));
+        this(aqlStatement, new AQLParserOptions());
+    }
+
+    /**
+     * @param aqlStatement the CQL statement to parse.
+     * @param options the options to use for parsing
+     * @since 0.2.1
+     */
+    public Parser(String aqlStatement, AQLParserOptions options) throws ParserException
+    {
+        this(aqlStatement, 0, aqlStatement.length(), options);
+    }
+
+    /**
+     * @param source the character sequence containing the CQL statement to parse, which is read in place. It must not
+     *     change until the statement is parsed.
+     * @param start the offset of the statement in the source
+     * @param end the offset after the statement in the source
+     * @param options the options to use for parsing
+     * @since 0.2.1
+     */
+    public Parser(CharSequence source, int start, int end, AQLParserOptions options) throws ParserException
+    {
+        Objects.checkFromToIndex(start, end, source.length());
+        if (start == end) {
+            throw new ParserException("The CQL expression is empty", new Object[0], new AQLParserState(0, 0, 0),
+                Collections.emptyList(), options.isDebug());
+        }
+        int maxLength = options.getMaxLength();
+        if (maxLength != AQLParserOptions.UNLIMITED && end - start > maxLength) {
+            // Checked before tokenizing, which goes through the whole statement
+            throw new ParserException("The CQL expression is too long, the maximum length is [{}] characters",
+                new Object[] { maxLength }, getState(source, start, end, maxLength), Collections.emptyList(),
+                options.isDebug());
+        }
+        this.reader = new AQLReader(source, start, end, 0);
+        this.tokens = new AQLTokenizer(this.reader);
+        this.lineTable = this.reader.getLineTable();
+        this.maxDepth = options.getMaxDepth();
+        this.maxClauses = options.getMaxClauses();
+        this.maxInValues = options.getMaxInValues();
+        this.maxFunctionArguments = options.getMaxFunctionArguments();
+        this.debug = options.isDebug();
+        this.operatorPositions = options.isOperatorPositions();
+    }
+
+    private static AQLParserState getState(CharSequence source, int start, int end, int offset)
+    {
+        AQLReader r = new AQLReader(source, start, end, 0);
+        while (r.getPos() < offset) {
+            r.read();
         }
-        this.reader = new AQLReader(aqlStatement);
+        return r.getState();
     }
 
     /**
@@ -98,217 +258,414 @@ public class Parser
      */
     public AQLStatement parse() throws ParserException, IOException
     {
-        AQLParserState state = reader.getState();
+        int start = this.pos;
         List<AQLClauseWithNextOperator> clausesWithNextOperator = parseClausesWithNextOperator();
         List<AQLOrderByClause> orderByClauses = maybeParseOrderByClauses();
-        AQLStatement expression = new AQLStatement(state, clausesWithNextOperator, orderByClauses);
-        int c = this.reader.read();
-        if (c != -1) {
-            String maybe = "";
-            if (expression.getOrderByClauses().isEmpty()) {
-                maybe = " Maybe a AND or OR operator is missing?";
+        while (type() != AQLTokenizer.EOF) {
+            try {
+                String maybe = "";
+                if (orderByClauses.isEmpty()) {
+                    maybe = " Maybe a AND or OR operator is missing?";
+                }
+                unexpectedChar(readFirstChar(), "trying to parse the end of the CQL expression." + maybe);
+            } catch (ParserException e) {
+                recover(e, 0);
+                if (!orderByClauses.isEmpty()) {
+                    skipTo(AQLTokenizer.EOF);
+                    break;
+                }
+
+                // Skip up to an operator joining a new clause to the statement, or an ORDER BY
+                skipClause(false);
+                AQLClauseOperator operator = maybeParseClauseOperator();
+                if (operator != null) {
+                    clausesWithNextOperator =
+                        join(clausesWithNextOperator, operator, parseClausesWithNextOperator());
+                }
+                orderByClauses = maybeParseOrderByClauses();
             }
-            unexpectedChar(c, "trying to parse the end of the CQL expression." + maybe);
         }
 
-        return expression;
+        return new AQLStatement(start, this.lineTable, clausesWithNextOperator, orderByClauses);
     }
 
-    List<AQLOrderByClause> maybeParseOrderByClauses() throws ParserException, IOException
+    /**
+     * Parse the CQL statement used to initialize the class, without stopping at the first error. Can only be called
+     * once, instead of {@link #parse()}.
+     * @return the partial AST corresponding to the aqlStatement, with the errors found in it
+     * @since 0.2.1
+     */
+    public AQLParseResult parseWithRecovery() throws ParserException, IOException
     {
-        if (this.reader.readWord("order")) {
-            eat("by");
+        this.errors = new ArrayList<>();
+        AQLStatement statement = parse();
+        return new AQLParseResult(statement, this.errors);
+    }
+
+    /**
+     * Parse the CQL statement used to initialize the class, allowing positional ('?') and named (':name') parameters
+     * in place of values. Can only be called once, instead of {@link #parse()}.
+     * @return the AST corresponding to the aqlStatement, in which parameters are {@link AQLParameter} nodes
+     * @since 0.2.1
+     */
+    public AQLStatement parseWithParameters() throws ParserException, IOException
+    {
+        this.parametersAllowed = true;
+        return parse();
+    }
+
+    List<AQLOrderByClause> maybeParseOrderByClauses() throws ParserException
+    {
+        skipWhite();
+        if (maybeEat(AQLTokenizer.KEYWORD_ORDER)) {
+            enter(ORDER_BY_CLAUSES);
+            int depth = this.pathLength;
+            try {
+                eat(AQLTokenizer.KEYWORD_BY, "by");
+            } catch (ParserException e) {
+                // Go on as if BY was there
+                recover(e, depth);
+            }
             List<AQLOrderByClause> orderByClauses = new ArrayList<>();
-            int c;
             do {
-                this.reader.skipWhite();
-                orderByClauses.add(parseOrderByClause());
-                this.reader.skipWhite();
-                c = this.reader.read();
-            } while (c == ',');
-            this.reader.unread(c);
+                skipWhite();
+                try {
+                    orderByClauses.add(parseOrderByClause());
+                } catch (ParserException e) {
+                    recover(e, depth);
+                    skipTo(AQLTokenizer.COMMA);
+                }
+                skipWhite();
+            } while (maybeEat(AQLTokenizer.COMMA));
+            leave();
             return orderByClauses;
         }
         return Collections.emptyList();
     }
 
-    AQLOrderByClause parseOrderByClause() throws ParserException, IOException
+    AQLOrderByClause parseOrderByClause() throws ParserException
     {
-        AQLParserState state = this.reader.getState();
+        enter(ORDER_BY_CLAUSE);
+        int start = this.pos;
         String field = parseField();
-        this.reader.skipWhite();
+        skipWhite();
         boolean desc = false;
-        if (this.reader.readWord("desc")) {
+        if (maybeEat(AQLTokenizer.KEYWORD_DESC)) {
             desc = true;
         } else {
-            this.reader.readWord("asc");
+            maybeEat(AQLTokenizer.KEYWORD_ASC);
         }
 
-        return new AQLOrderByClause(state, field, desc);
+        leave();
+        return new AQLOrderByClause(start, this.lineTable, field, desc);
     }
 
-    List<AQLClauseWithNextOperator> parseClausesWithNextOperator() throws ParserException, IOException
+    List<AQLClauseWithNextOperator> parseClausesWithNextOperator() throws ParserException
     {
+        // The groups of clauses in which the current clause is nested, the innermost one first.
+        Deque<ClauseGroup> groups = new ArrayDeque<>();
         List<AQLClauseWithNextOperator> clauses = new ArrayList<>();
-        AQLClauseWithNextOperator clause;
-        do {
-            clause = parseClauseWithNextOperator();
-            clauses.add(clause);
-        } while (clause.getNextOperator() != null);
-        return clauses;
-    }
+        enter(CLAUSES);
+        while (true) {
+            enter(CLAUSE);
+            skipWhite();
+            if (maybeEat(AQLTokenizer.OPENING_PARENTHESIS)) {
+                if (this.maxDepth != AQLParserOptions.UNLIMITED && groups.size() >= this.maxDepth) {
+                    error("Too many nested parentheses, the maximum depth is [{}]", this.maxDepth);
+                }
+                groups.push(new ClauseGroup(this.pos, clauses));
+                clauses = new ArrayList<>();
+                enter(CLAUSES);
+                continue;
+            }
 
-    AQLClauseWithNextOperator parseClauseWithNextOperator() throws ParserException, IOException
-    {
-        AbstractAQLClause clause;
-        this.reader.skipWhite();
-        if (this.reader.maybeEat('(')) {
-            clause = new AQLClausesWithNextOperator(this.reader.getState(), parseClausesWithNextOperator());
-            this.reader.skipWhite();
-            eatClosingParenthesis();
-        } else {
-            clause = parseAtom();
-        }
+            // When recovering from an error, the clause is left out
+            AbstractAQLClause clause = null;
+            int depth = this.pathLength;
+            try {
+                clause = parseAtom();
+            } catch (ParserException e) {
+                recover(e, depth);
+                skipClause(!groups.isEmpty());
+            }
+
+            AQLClauseOperator nextOperator;
+            while (true) {
+                int end = this.pos;
+                nextOperator = maybeParseClauseOperator();
+                if (clause != null) {
+                    clauses.add(new AQLClauseWithNextOperator(end, this.lineTable, clause, nextOperator));
+                } else if (nextOperator == null && !clauses.isEmpty()) {
+                    // The left out clause was the last one, the previous clause is now the last one
+                    AQLClauseWithNextOperator last = clauses.remove(clauses.size() - 1);
+                    clauses.add(new AQLClauseWithNextOperator(last.getOffset(), this.lineTable, last.getClause(),
+                        null));
+                }
+                leave();
+                if (nextOperator != null || groups.isEmpty()) {
+                    break;
+                }
 
-        return new AQLClauseWithNextOperator(this.reader.getState(), clause, maybeParseClauseOperator());
+                // This was the last clause of a group, which is itself a clause of the enclosing group.
+                ClauseGroup group = groups.pop();
+                clause = clauses.isEmpty()
+                    ? null
+                    : new AQLClausesWithNextOperator(group.start, this.lineTable, clauses);
+                clauses = group.clauses;
+                leave();
+                skipWhite();
+                depth = this.pathLength;
+                try {
+                    eatClosingParenthesis();
+                } catch (ParserException e) {
+                    recover(e, depth);
+                    // Skip what remains in the group, including its closing parenthesis if any
+                    skipTo(AQLTokenizer.CLOSING_PARENTHESIS);
+                    maybeEat(AQLTokenizer.CLOSING_PARENTHESIS);
+                }
+            }
+
+            if (nextOperator == null) {
+                leave();
+                return clauses;
+            }
+        }
     }
 
-    private AQLAtomicClause parseAtom() throws ParserException, IOException
+    private AQLAtomicClause parseAtom() throws ParserException
     {
-        AQLParserState state = this.reader.getState();
+        enter(ATOM);
+        if (this.maxClauses != AQLParserOptions.UNLIMITED && ++this.clauseCount > this.maxClauses) {
+            error("Too many clauses, the maximum is [{}]", this.maxClauses);
+        }
+        int start = this.pos;
         String field = parseField();
-        this.reader.skipWhite();
+        skipWhite();
         AQLAtomicClauseOperator op = parseAtomOperator();
-        this.reader.skipWhite();
+        skipWhite();
         AbstractAQLRightHandValue right = op.getOperator() == AQLOperator.IN || op.getOperator() == AQLOperator.NOT_IN
             ? parseInExpr()
             : parseAtomicValue(false);
 
-        return new AQLAtomicClause(state, field, op, right);
+        leave();
+        return new AQLAtomicClause(start, this.lineTable, field, op, right);
     }
 
-    private AQLInExpression parseInExpr() throws ParserException, IOException
+    private AQLInExpression parseInExpr() throws ParserException
     {
-        AQLParserState state = reader.getState();
-        List<AbstractAQLAtomicValue> values = new ArrayList<>();
+        enter(IN_EXPR);
+        int start = this.pos;
         eatOpeningParenthesis();
+
+        // Integers are collected as longs, as long as no other kind of value is found
+        long[] integers = new long[INITIAL_IN_CAPACITY];
+        int[] offsets = new int[INITIAL_IN_CAPACITY];
+        int count = 0;
+        List<AbstractAQLAtomicValue> values = null;
         do {
-            values.add(parseAtomicValue(true));
-            this.reader.skipWhite();
-        } while (this.reader.maybeEat(','));
+            skipWhite();
+            if (this.maxInValues != AQLParserOptions.UNLIMITED
+                && (values == null ? count : values.size()) >= this.maxInValues)
+            {
+                error("Too many values in the IN expression, the maximum is [{}]", this.maxInValues);
+            }
+            long integer = values == null ? integerToken() : -1;
+            if (integer == -1) {
+                if (values == null) {
+                    values = toNumberLiterals(integers, offsets, count);
+                }
+                values.add(parseAtomicValue(true));
+            } else {
+                if (count == integers.length) {
+                    integers = Arrays.copyOf(integers, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                integers[count] = integer;
+                offsets[count] = this.pos;
+                count++;
+                next();
+            }
+            skipWhite();
+        } while (maybeEat(AQLTokenizer.COMMA));
         eatClosingParenthesis();
-        return new AQLInExpression(state, values);
+        leave();
+
+        if (values == null) {
+            return new AQLIntegerInExpression(start, this.lineTable, integers, offsets, count);
+        }
+
+        return new AQLInExpression(start, this.lineTable, values);
     }
 
-    private AbstractAQLAtomicValue parseAtomicValue(boolean inParentheses) throws ParserException, IOException
+    /**
+     * @return the value of the current token if it is an integer written without leading zeros and small enough to
+     *     be stored in a long without any loss, -1 otherwise
+     */
+    private long integerToken()
     {
-        this.reader.skipWhite();
-        AQLParserState state = this.reader.getState();
-
-        int c = this.reader.read();
+        if (type() != AQLTokenizer.NUMBER) {
+            return -1;
+        }
 
-        if (c == '"' || c == '\'') {
-            return parseRemainingString(state, c);
+        int start = this.tokens.getStart(this.token);
+        int end = this.tokens.getEnd(this.token);
+        if (end - start > MAX_INTEGER_DIGITS || (end - start > 1 && this.reader.charAt(start) == '0')) {
+            return -1;
         }
 
-        if (Character.isDigit(c) || c == '.') {
-            return parseRemainingNumberOrDate(c, state, this.reader);
+        long integer = 0;
+        for (int i = start; i < end; i++) {
+            char c = this.reader.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            integer = integer * DECIMAL + (c - '0');
         }
+        return integer;
+    }
 
-        if (Character.isAlphabetic(c)) {
-            return parseRemainingAtomicValue(c, state);
+    private List<AbstractAQLAtomicValue> toNumberLiterals(long[] integers, int[] offsets, int count)
+    {
+        List<AbstractAQLAtomicValue> values = new ArrayList<>(Math.max(count * 2, INITIAL_IN_CAPACITY));
+        for (int i = 0; i < count; i++) {
+            values.add(new AQLNumberLiteral(offsets[i], this.lineTable, Long.toString(integers[i])));
         }
+        return values;
+    }
 
-        this.reader.unread(c);
-        if (inParentheses && c == ')') {
+    private AbstractAQLAtomicValue parseAtomicValue(boolean inParentheses) throws ParserException
+    {
+        enter(ATOMIC_VALUE);
+        skipWhite();
+        int start = this.pos;
+
+        int c = firstChar();
+
+        // null is unreachable
+        AbstractAQLAtomicValue value = null;
+        if (c == '"' || c == '\'') {
+            value = parseRemainingString(start);
+        } else if (Character.isDigit(c) || c == '.') {
+            this.reader.seek(this.pos + 1);
+            value = parseRemainingNumberOrDate(c, start, this.reader);
+            moveTo(this.reader.getPos());
+        } else if (Character.isAlphabetic(c)) {
+            value = parseRemainingAtomicValue(start);
+        } else if (this.parametersAllowed && (c == '?' || c == ':')) {
+            value = parseParameter(c, start);
+        } else if (inParentheses && c == ')') {
             error("Expected a value before closing parenthesis ')'");
         }
 
-        // unreachable
-        return null;
+        leave();
+        return value;
     }
 
-    private AbstractAQLAtomicValue parseRemainingAtomicValue(int first, AQLParserState state)
-        throws IOException, ParserException
+    private AbstractAQLAtomicValue parseRemainingAtomicValue(int start) throws ParserException
     {
-        StringBuilder identifier = new StringBuilder();
-        int c = first;
-        do {
-            identifier.append((char) c);
-            c = this.reader.read();
-        } while (c == '_' || c == '.' || Character.isLetterOrDigit(c));
+        String identifier = this.reader.substring(this.tokens.getStart(this.token), this.tokens.getEnd(this.token));
+        next();
+        skipWhite();
 
-        if (Character.isWhitespace(c)) {
-            this.reader.skipWhite();
-            c = this.reader.read();
+        if (maybeEat(AQLTokenizer.OPENING_PARENTHESIS)) {
+            return new AQLFunctionCall(start, this.lineTable, identifier, parseRemainingFunctionCallArguments());
         }
 
-        if (c == '(') {
-            return new AQLFunctionCall(state, identifier.toString(), parseRemainingFunctionCallArguments());
+        String lower = identifier.toLowerCase();
+        if (TRUE.equals(lower) || FALSE.equals(lower)) {
+            return new AQLBooleanLiteral(start, this.lineTable, TRUE.equals(lower));
         }
 
-        this.reader.unread(c);
+        return new AQLStringLiteral(start, this.lineTable, identifier);
+    }
 
-        String lower = identifier.toString().toLowerCase();
-        if (TRUE.equals(lower) || FALSE.equals(lower)) {
-            return new AQLBooleanLiteral(state, TRUE.equals(lower));
+    private AQLParameter parseParameter(int first, int start) throws ParserException
+    {
+        this.reader.seek(start + 1);
+        if (first == '?') {
+            moveTo(this.reader.getPos());
+            return new AQLParameter(start, this.lineTable, this.positionalParameterCount++);
+        }
+
+        int c = this.reader.peek();
+        while (c == '_' || (c != -1 && Character.isLetterOrDigit(c))) {
+            this.reader.read();
+            c = this.reader.peek();
+        }
+        moveTo(this.reader.getPos());
+
+        if (this.pos == start + 1) {
+            error("Expected the name of the parameter after ':'");
         }
 
-        return new AQLStringLiteral(state, identifier.toString());
+        return new AQLParameter(start, this.lineTable, this.reader.substring(start + 1, this.pos));
     }
 
-    private List<AbstractAQLAtomicValue> parseRemainingFunctionCallArguments() throws ParserException, IOException
+    private List<AbstractAQLAtomicValue> parseRemainingFunctionCallArguments() throws ParserException
     {
-        this.reader.skipWhite();
-        if (this.reader.maybeEat(')')) {
+        skipWhite();
+        if (maybeEat(AQLTokenizer.CLOSING_PARENTHESIS)) {
             return Collections.emptyList();
         }
 
+        enter(FUNCTION_CALL_ARGUMENTS);
         List<AbstractAQLAtomicValue> arguments = new ArrayList<>();
-        int c;
         do {
+            skipWhite();
+            if (this.maxFunctionArguments != AQLParserOptions.UNLIMITED
+                && arguments.size() >= this.maxFunctionArguments)
+            {
+                error("Too many arguments in the function call, the maximum is [{}]", this.maxFunctionArguments);
+            }
             arguments.add(parseAtomicValue(true));
-            this.reader.skipWhite();
-            c = this.reader.read();
-        } while (c == ',');
+            skipWhite();
+        } while (maybeEat(AQLTokenizer.COMMA));
 
-        if (c != ')') {
-            unexpectedChar(c, "trying to parse the end of the function call");
+        if (!maybeEat(AQLTokenizer.CLOSING_PARENTHESIS)) {
+            unexpectedChar(readFirstChar(), "trying to parse the end of the function call");
         }
 
+        leave();
         return arguments;
     }
 
-    private static AbstractAQLAtomicValue parseRemainingNumberOrDate(int first, AQLParserState state, AQLReader r)
-        throws IOException, ParserException
+    private AbstractAQLAtomicValue parseRemainingNumberOrDate(int first, int start, AQLReader r)
+        throws ParserException
     {
         // In this method, we use the passed reader and not this.reader, because it can be used for trying to parse a
-        // date in an already parsed string
+        // date in an already parsed string.
+        // Digits are accumulated as they are read, and the text of the literal is only extracted once its end is
+        // known.
 
-        StringBuilder number = new StringBuilder();
+        int from = r.getPos() - 1;
         int c = first;
         if (c != '.' && c != 'e' && c != 'E') {
+            long value = 0;
             do {
-                number.append((char) c);
+                value = accumulateDigit(value, c);
                 c = r.read();
             } while (Character.isDigit(c));
 
             if (c == '-' || c == '/') {
-                return parseRemainingDate((char) c, Integer.parseInt(number.toString()), state, r);
+                enter(NUMBER_OR_DATE);
+                int year = toDatePart(value, from, start, r);
+                AQLDateLiteral date = parseRemainingDate((char) c, year, start, r);
+                leave();
+                return date;
             }
         }
 
         boolean success = true;
 
         if (c == '.' || c == 'e' || c == 'E') {
-            success = parseRemainingFloat(number, r, c);
+            success = parseRemainingFloat(r, c);
             c = r.peek();
         } else {
             r.unread(c);
         }
 
         if (success && isEndChar(c)) {
-            return new AQLNumberLiteral(state, number.toString());
+            return new AQLNumberLiteral(start, this.lineTable, r.substring(from, r.getPos()));
         }
 
         // Weird character after the number, handling this as string.
@@ -316,13 +673,35 @@ public class Parser
 
         c = r.read();
         while (!isEndChar(c)) {
-            number.append((char) c);
             c = r.read();
         }
 
         r.unread(c);
 
-        return new AQLStringLiteral(state, number.toString());
+        return new AQLStringLiteral(start, this.lineTable, r.substring(from, r.getPos()));
+    }
+
+    /**
+     * @return the given value followed by the given digit, saturated above {@link Integer#MAX_VALUE} so that huge
+     *     numbers don't overflow
+     * @param value the value of the digits read so far
+     * @param digit the next digit
+     */
+    private static long accumulateDigit(long value, int digit)
+    {
+        return value > Integer.MAX_VALUE ? value : value * DECIMAL + Character.digit(digit, DECIMAL);
+    }
+
+    private int toDatePart(long value, int from, int start, AQLReader r) throws ParserException
+    {
+        if (value > Integer.MAX_VALUE) {
+            if (this.tryingDate) {
+                this.dateFailed = true;
+                return 0;
+            }
+            error(r.getState(from), "Number too large in the date started at [{}]", this.lineTable.getState(start));
+        }
+        return (int) value;
     }
 
     private static boolean isEndChar(int c)
@@ -330,27 +709,21 @@ public class Parser
         return c == -1 || Character.isWhitespace(c) || ",()".indexOf((char) c) != -1;
     }
 
-    private static boolean parseRemainingFloat(StringBuilder number, AQLReader r, int first)
-        throws IOException
+    private static boolean parseRemainingFloat(AQLReader r, int first)
     {
         int c = first;
         boolean ok = true;
 
         if (c == '.') {
-            number.append('.');
-
             c = r.read();
             while (Character.isDigit(c)) {
-                number.append((char) c);
                 c = r.read();
             }
         }
 
         if (c == 'e' || c == 'E') {
-            number.append((char) c);
             c = r.read();
             if (c == '-' || c == '+') {
-                number.append((char) c);
                 c = r.read();
             }
 
@@ -358,7 +731,6 @@ public class Parser
             ok = false;
             while (Character.isDigit(c)) {
                 ok = true;
-                number.append((char) c);
                 c = r.read();
             }
         }
@@ -367,18 +739,19 @@ public class Parser
         return ok;
     }
 
-    private static AQLDateLiteral parseRemainingDate(char dateSep, int year, AQLParserState state, AQLReader r)
-        throws IOException, ParserException
+    private AQLDateLiteral parseRemainingDate(char dateSep, int year, int start, AQLReader r)
+        throws ParserException
     {
-        int month = parseDatePart(dateSep, state, r, false);
-        int day = parseDatePart(dateSep, state, r, true);
+        enter(DATE);
+        int month = parseDatePart(dateSep, start, r, false);
+        int day = parseDatePart(dateSep, start, r, true);
         int hours = -1;
         int minutes = -1;
         r.skipWhite();
         int c = r.peek();
         if (Character.isDigit(c)) {
-            hours = parseDatePart(':', state, r, false);
-            minutes = parseDatePart(-1, state, r, true);
+            hours = parseDatePart(':', start, r, false);
+            minutes = parseDatePart(-1, start, r, true);
         }
 
         // We don't check if the date is sensible (month between 1 and 12, days between 1 and 28, 29, 30, 31
@@ -387,138 +760,241 @@ public class Parser
         // it's possible broken-looking date actually work in Confluence.
         // FIXME: To be checked.
 
-        return new AQLDateLiteral(state, year, month, day, hours, minutes);
+        leave();
+        return new AQLDateLiteral(start, this.lineTable, year, month, day, hours, minutes);
     }
 
-    private static int parseDatePart(int dateSep, AQLParserState state, AQLReader r, boolean allowEnd)
-        throws IOException, ParserException
+    private int parseDatePart(int dateSep, int start, AQLReader r, boolean allowEnd)
+        throws ParserException
     {
-        StringBuilder atom = new StringBuilder();
+        enter(DATE_PART);
+        int from = r.getPos();
+        long value = 0;
+        int digits = 0;
+        int lastDigit = -1;
         int c = r.read();
         while (Character.isDigit(c)) {
-            atom.append((char) c);
+            value = accumulateDigit(value, c);
+            digits++;
+            lastDigit = c;
             c = r.read();
         }
 
-        if (atom.length() != 0 && (dateSep == -1 || (allowEnd && Character.isWhitespace(c)))) {
+        if (digits != 0 && (dateSep == -1 || (allowEnd && Character.isWhitespace(c)))) {
             r.unread(c);
-        } else if (atom.length() == 0 || (c != dateSep && !(allowEnd && c == -1))) {
+        } else if (digits == 0 || (c != dateSep && !(allowEnd && c == -1))) {
+            if (this.tryingDate) {
+                this.dateFailed = true;
+                leave();
+                return 0;
+            }
             // unreading this last character allows a more accurate error message positioning.
-            r.unread(atom.length() == 0 ? c : atom.charAt(atom.length() - 1));
-            error(r, "Expected '{}' in the date started at [{}]", (char) dateSep, state);
+            r.unread(digits == 0 ? c : lastDigit);
+            error(r.getState(), "Expected '{}' in the date started at [{}]", (char) dateSep,
+                this.lineTable.getState(start));
         }
 
-        return Integer.parseInt(atom.toString());
+        int part = toDatePart(value, from, start, r);
+        leave();
+        return part;
     }
 
-    private AbstractAQLAtomicValue parseRemainingString(AQLParserState state, int quote)
-        throws IOException, ParserException
+    private AbstractAQLAtomicValue parseRemainingString(int start) throws ParserException
     {
-        StringBuilder builder = new StringBuilder();
-        while (true) {
-            int c = this.reader.read();
-            switch (c) {
-                case -1:
-                    error("Unexpected end, expected the end of string started at [{}]", state);
-                    break;
-                case '\\':
-                    c = this.reader.read();
-                    if (c == -1) {
-                        error("Unexpected end, expected an escaped character after '\\', and the end of string "
-                            + "started at [{}]", state);
-                    }
-                    break;
-                case '"':
-                case '\'':
-                    if (c == quote) {
-                        return parseEndString(state, builder);
-                    }
-                    break;
-                default:
-                    // ignore
+        enter(STRING);
+        int type = type();
+        int end = this.tokens.getEnd(this.token);
+        if (type == AQLTokenizer.UNTERMINATED_STRING) {
+            this.pos = end;
+            error("Unexpected end, expected the end of string started at [{}]", this.lineTable.getState(start));
+        } else if (type == AQLTokenizer.UNTERMINATED_ESCAPE) {
+            this.pos = end;
+            error("Unexpected end, expected an escaped character after '\\', and the end of string "
+                + "started at [{}]", this.lineTable.getState(start));
+        }
+        leave();
+
+        // Skip the quotes
+        int from = this.pos + 1;
+        int last = end - 1;
+        next();
+
+        int escape = from;
+        while (escape < last && this.reader.charAt(escape) != '\\') {
+            escape++;
+        }
+
+        if (escape == last) {
+            // Without escaped characters, the content of the string is read in place
+            AQLDateLiteral date = maybeParseQuotedDate(start, from, last);
+            return date == null ? new AQLStringLiteral(start, this.lineTable, this.reader.substring(from, last)) : date;
+        }
+
+        StringBuilder builder = new StringBuilder(last - from);
+        for (int i = from; i < last; i++) {
+            char c = this.reader.charAt(i);
+            if (c == '\\') {
+                c = this.reader.charAt(++i);
+            }
+            builder.append(c);
+        }
+        return parseEndString(start, builder);
+    }
+
+    /**
+     * Dates can be quoted, especially those which contain hours and minutes, so a string starting with a digit may be
+     * a date.
+     *
+     * @return the date the characters between the given offsets consist of, or null if they are not a date
+     */
+    private AQLDateLiteral maybeParseQuotedDate(int start, int from, int to) throws ParserException
+    {
+        if (from == to || !Character.isDigit(this.reader.charAt(from))) {
+            return null;
+        }
+
+        int end = this.reader.getEnd();
+        this.reader.setEnd(to);
+        this.reader.seek(from + 1);
+        this.tryingDate = true;
+        this.dateFailed = false;
+        try {
+            AbstractAQLAtomicValue v = parseRemainingNumberOrDate(this.reader.charAt(from), start, this.reader);
+            // If this failed, this is likely a regular string. Otherwise, only return a date literal if the whole
+            // string has been read; parseRemainingNumberOrDate can return a number literal, and we don't want this
+            // instead of a string literal.
+            if (!this.dateFailed && this.reader.read() == -1 && v instanceof AQLDateLiteral) {
+                return (AQLDateLiteral) v;
             }
-            builder.append((char) c);
+            return null;
+        } finally {
+            this.tryingDate = false;
+            this.reader.setEnd(end);
         }
     }
 
-    private AbstractAQLAtomicValue parseEndString(AQLParserState state, StringBuilder builder)
-        throws IOException
+    private AbstractAQLAtomicValue parseEndString(int start, StringBuilder builder) throws ParserException
     {
         String str = builder.toString();
         if (!str.isEmpty() && Character.isDigit(str.charAt(0))) {
-            // Dates can be quoted, especially those which contain hours and minutes so let's try parsing
-            // this string as date
-            try {
-                AQLReader r = new AQLReader(str.substring(1));
-                AbstractAQLAtomicValue v = parseRemainingNumberOrDate(str.charAt(0), state, r);
-                if (r.read() == -1 && v instanceof AQLDateLiteral) {
-                    // Only return a date literal if the whole string has been read; parseRemainingNumberOrDate can
-                    // return a number literal, and we don't want this instead of a string literal.
-                    return v;
-                }
-            } catch (ParserException e) {
-                // Well, this failed, so this is likely a regular string. Let's just produce a string literal.
+            // The string contains escaped characters, so it is read from its unescaped copy
+            AQLReader r = new AQLReader(str, 1);
+            this.tryingDate = true;
+            this.dateFailed = false;
+            AbstractAQLAtomicValue v = parseRemainingNumberOrDate(str.charAt(0), start, r);
+            this.tryingDate = false;
+            if (!this.dateFailed && r.read() == -1 && v instanceof AQLDateLiteral) {
+                return v;
             }
         }
-        return new AQLStringLiteral(state, str);
+        return new AQLStringLiteral(start, this.lineTable, str);
     }
 
-    private String parseField() throws IOException, ParserException
+    private String parseField() throws ParserException
     {
-        String field = this.reader.readAlphaNumericWord();
-        if (this.reader.maybeEat('.')) {
-            field += '.';
-            field += parseField();
+        enter(FIELD);
+        this.reader.seek(this.pos);
+        int start = this.reader.getPos();
+        boolean partRead = this.reader.skipAlphaNumericWord();
+        while (this.reader.maybeEat('.')) {
+            partRead = this.reader.skipAlphaNumericWord();
         }
-        if (field.isEmpty()) {
-            error("Expected a field");
+
+        // The field, or its part after the last dot, is empty.
+        if (!partRead) {
+            error(this.reader.getState(), "Expected a field");
         }
-        return field.toLowerCase();
+
+        int end = this.reader.getPos();
+        moveTo(end);
+        leave();
+
+        String field = this.reader.substring(start, end).toLowerCase();
+        return KNOWN_FIELDS.getOrDefault(field, field);
     }
 
-    private AQLAtomicClauseOperator parseAtomOperator() throws ParserException, IOException
+    private AQLAtomicClauseOperator parseAtomOperator() throws ParserException
     {
-        this.reader.skipWhite();
+        enter(ATOM_OPERATOR);
+        skipWhite();
 
-        AQLParserState state = this.reader.getState();
+        int start = this.pos;
 
-        if (this.reader.readWord(NOT)) {
-            eat(IN);
-            return new AQLAtomicClauseOperator(state, AQLOperator.NOT_IN);
+        AQLOperator op;
+        if (maybeEat(AQLTokenizer.KEYWORD_NOT)) {
+            eat(AQLTokenizer.KEYWORD_IN, IN);
+            op = AQLOperator.NOT_IN;
+        } else if (maybeEat(AQLTokenizer.KEYWORD_IN)) {
+            op = AQLOperator.IN;
+        } else {
+            op = getOperator(type());
+            if (op == null) {
+                error("Expected a CQL operator among [IN, NOT IN, {}]", ATOM_OPS);
+            }
+            next();
         }
 
-        if (this.reader.readWord(IN)) {
-            return new AQLAtomicClauseOperator(state, AQLOperator.IN);
-        }
+        leave();
+        return this.operatorPositions
+            ? new AQLAtomicClauseOperator(start, this.lineTable, op)
+            : AQLAtomicClauseOperator.of(op);
+    }
 
-        String op = this.reader.readWordOneOf(false, ATOM_OPS);
-        if (op == null) {
-            error("Expected a CQL operator among [IN, NOT IN, {}]", String.join(", ", ATOM_OPS));
+    private static AQLOperator getOperator(int tokenType)
+    {
+        switch (tokenType) {
+            case AQLTokenizer.OPERATOR_EQ:
+                return AQLOperator.EQ;
+            case AQLTokenizer.OPERATOR_NEQ:
+                return AQLOperator.NEQ;
+            case AQLTokenizer.OPERATOR_GTE:
+                return AQLOperator.GTE;
+            case AQLTokenizer.OPERATOR_LTE:
+                return AQLOperator.LTE;
+            case AQLTokenizer.OPERATOR_GT:
+                return AQLOperator.GT;
+            case AQLTokenizer.OPERATOR_LT:
+                return AQLOperator.LT;
+            case AQLTokenizer.OPERATOR_CONTAINS:
+                return AQLOperator.CONTAINS;
+            case AQLTokenizer.OPERATOR_DOES_NOT_CONTAIN:
+                return AQLOperator.DOES_NOT_CONTAIN;
+            default:
+                return null;
         }
-
-        return new AQLAtomicClauseOperator(state, ATOM_OPS_MAP.get(op));
     }
 
-    private AQLClauseOperator maybeParseClauseOperator() throws ParserException, IOException
+    private AQLClauseOperator maybeParseClauseOperator() throws ParserException
     {
-        reader.skipWhite();
-        AQLParserState state = this.reader.getState();
-        String op = this.reader.readWordOneOf(true, AND, OR);
-        if (op == null) {
+        skipWhite();
+        int type = type();
+        if (type != AQLTokenizer.KEYWORD_AND && type != AQLTokenizer.KEYWORD_OR) {
             return null;
         }
 
-        boolean isAnd = AND.equals(op);
-        boolean isNot = this.reader.readWord(NOT);
-        return new AQLClauseOperator(state, isAnd, isNot);
+        int start = this.pos;
+        next();
+        skipWhite();
+        boolean isNot = maybeEat(AQLTokenizer.KEYWORD_NOT);
+        boolean isAnd = type == AQLTokenizer.KEYWORD_AND;
+        return this.operatorPositions
+            ? new AQLClauseOperator(start, this.lineTable, isAnd, isNot)
+            : AQLClauseOperator.of(isAnd, isNot);
     }
 
-    private void eat(String expectedWord) throws ParserException, IOException
+    private void eat(int keyword, String expectedWord) throws ParserException
     {
-        this.reader.skipWhite();
-        if (!this.reader.readWord(expectedWord, false)) {
+        skipWhite();
+        if (maybeEat(keyword)) {
+            return;
+        }
+
+        // The keyword may also be directly followed by something else, as in "order bytitle"
+        this.reader.seek(this.pos);
+        if (!this.reader.readWord(expectedWord)) {
             errorExpected(expectedWord);
         }
+        moveTo(this.reader.getPos());
     }
 
     private void errorExpected(Object expectedCharOrWord) throws ParserException
@@ -526,40 +1002,233 @@ public class Parser
         error("Expected [{}]", expectedCharOrWord);
     }
 
-    private void eatClosingParenthesis() throws ParserException, IOException
+    private void eatClosingParenthesis() throws ParserException
     {
-        if (this.reader.read() != ')') {
+        if (!maybeEat(AQLTokenizer.CLOSING_PARENTHESIS)) {
+            readFirstChar();
             error("Expected closing parenthesis ')'");
         }
     }
 
-    private void eatOpeningParenthesis() throws ParserException, IOException
+    private void eatOpeningParenthesis() throws ParserException
     {
-        if (this.reader.read() != '(') {
+        if (!maybeEat(AQLTokenizer.OPENING_PARENTHESIS)) {
+            readFirstChar();
             error("Expected opening parenthesis '('");
         }
     }
 
+    private int type()
+    {
+        return this.tokens.getType(this.token);
+    }
 
-    private void error(String message, Object... parameters) throws ParserException
+    /**
+     * Consume the current token.
+     */
+    private void next()
     {
-        error(this.reader, message, parameters);
+        this.pos = this.tokens.getEnd(this.token);
+        this.token++;
+    }
+
+    /**
+     * Consume the current token if it is of the given type.
+     *
+     * @param type the expected token type
+     * @return whether the token was consumed
+     */
+    private boolean maybeEat(int type)
+    {
+        if (type() == type) {
+            next();
+            return true;
+        }
+
+        return false;
     }
 
-    private static void error(AQLReader reader, String message, Object... parameters) throws ParserException
+    /**
+     * Move to the start of the current token, skipping the white spaces before it.
+     */
+    private void skipWhite()
     {
-        AQLParserState state = reader.getState();
+        this.pos = this.tokens.getStart(this.token);
+    }
 
-        error(state, message, parameters);
+    /**
+     * Move to the given offset, after having read characters directly from the reader.
+     *
+     * @param offset the offset of the next character to parse
+     */
+    private void moveTo(int offset)
+    {
+        this.token = this.tokens.resync(this.token, offset);
+        this.pos = offset;
     }
 
-    private static void error(AQLParserState state, String message, Object... parameters) throws ParserException
+    /**
+     * @return the first character of the current token, or -1 at the end of the statement
+     */
+    private int firstChar()
     {
-        String msg = message;
-        for (Object parameter : parameters) {
-            msg = msg.replaceFirst("\\{}", parameter.toString());
+        return type() == AQLTokenizer.EOF ? -1 : this.reader.charAt(this.tokens.getStart(this.token));
+    }
+
+    /**
+     * Move after the first character of the current token, which is only done right before reporting an unexpected
+     * character so the error is positioned after this character.
+     *
+     * @return the first character of the current token, or -1 at the end of the statement
+     */
+    private int readFirstChar()
+    {
+        int c = firstChar();
+        if (c != -1) {
+            this.pos = this.tokens.getStart(this.token) + 1;
         }
-        throw new ParserException(msg, state);
+        return c;
+    }
+
+    private AQLParserState getState()
+    {
+        return this.lineTable.getState(this.pos);
+    }
+
+    /**
+     * Record that the parser starts parsing the given grammar element.
+     *
+     * @param element the user-friendly name of the element
+     */
+    private void enter(String element)
+    {
+        if (this.pathLength == this.path.length) {
+            this.path = Arrays.copyOf(this.path, this.pathLength * 2);
+        }
+        this.path[this.pathLength++] = element;
+    }
+
+    /**
+     * Record that the parser is done parsing the last entered grammar element.
+     */
+    private void leave()
+    {
+        this.pathLength--;
+    }
+
+    /**
+     * @return the grammar elements being parsed, from the outermost one, without consecutive duplicates
+     */
+    private List<String> getPath()
+    {
+        List<String> result = new ArrayList<>(this.pathLength);
+        String last = null;
+        for (int i = 0; i < this.pathLength; i++) {
+            if (!this.path[i].equals(last)) {
+                last = this.path[i];
+                result.add(last);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Skip the rest of a clause in which an error was found, up to an operator joining the next clause, a closing
+     * parenthesis ending the group of clauses, an ORDER BY or the end of the statement.
+     *
+     * @param inGroup whether the clause is in a group of clauses between parentheses. If not, closing parentheses
+     *     without a matching opening one are skipped.
+     */
+    private void skipClause(boolean inGroup)
+    {
+        int nesting = 0;
+        while (true) {
+            switch (type()) {
+                case AQLTokenizer.EOF:
+                case AQLTokenizer.KEYWORD_ORDER:
+                    return;
+                case AQLTokenizer.KEYWORD_AND:
+                case AQLTokenizer.KEYWORD_OR:
+                    if (nesting == 0) {
+                        return;
+                    }
+                    break;
+                case AQLTokenizer.CLOSING_PARENTHESIS:
+                    if (nesting == 0 && inGroup) {
+                        return;
+                    }
+                    nesting = Math.max(0, nesting - 1);
+                    break;
+                case AQLTokenizer.OPENING_PARENTHESIS:
+                    nesting++;
+                    break;
+                default:
+                    break;
+            }
+            next();
+        }
+    }
+
+    /**
+     * Skip tokens up to the given type of token, or the end of the statement, ignoring tokens between parentheses.
+     *
+     * @param type the type of the token to stop at
+     */
+    private void skipTo(int type)
+    {
+        int nesting = 0;
+        while (type() != AQLTokenizer.EOF && (nesting > 0 || type() != type)) {
+            if (type() == AQLTokenizer.OPENING_PARENTHESIS) {
+                nesting++;
+            } else if (type() == AQLTokenizer.CLOSING_PARENTHESIS && nesting > 0) {
+                nesting--;
+            }
+            next();
+        }
+        skipWhite();
+    }
+
+    /**
+     * Record the given error when parsing with recovery, so parsing can go on, or throw it.
+     *
+     * @param e the error
+     * @param depth the number of grammar elements being parsed at the point from which parsing goes on
+     * @throws ParserException the given error, when not parsing with recovery
+     */
+    private void recover(ParserException e, int depth) throws ParserException
+    {
+        if (this.errors == null) {
+            throw e;
+        }
+
+        this.errors.add(e);
+        this.pathLength = depth;
+        this.tryingDate = false;
+    }
+
+    private List<AQLClauseWithNextOperator> join(List<AQLClauseWithNextOperator> clauses,
+        AQLClauseOperator operator, List<AQLClauseWithNextOperator> nextClauses)
+    {
+        if (clauses.isEmpty()) {
+            return nextClauses;
+        }
+
+        List<AQLClauseWithNextOperator> joined = new ArrayList<>(clauses.size() + nextClauses.size());
+        joined.addAll(clauses);
+        AQLClauseWithNextOperator last = joined.remove(joined.size() - 1);
+        joined.add(new AQLClauseWithNextOperator(last.getOffset(), this.lineTable, last.getClause(), operator));
+        joined.addAll(nextClauses);
+        return joined;
+    }
+
+    private void error(String message, Object... parameters) throws ParserException
+    {
+        error(getState(), message, parameters);
+    }
+
+    private void error(AQLParserState state, String message, Object... parameters) throws ParserException
+    {
+        throw new ParserException(message, parameters, state, getPath(), this.debug);
     }
 
     private void unexpectedChar(int c, String msg) throws ParserException
@@ -569,4 +1238,26 @@ public class Parser
         }
         error("Unexpected character '{}' while {}", (char) c, msg);
     }
+
+    /**
+     * A group of clauses between parentheses, which is being parsed.
+     */
+    private static final class ClauseGroup
+    {
+        /**
+         * The offset right after the opening parenthesis.
+         */
+        private final int start;
+
+        /**
+         * The clauses parsed before this group, in the enclosing group.
+         */
+        private final List<AQLClauseWithNextOperator> clauses;
+
+        ClauseGroup(int start, List<AQLClauseWithNextOperator> clauses)
+        {
+            this.start = start;
+            this.clauses = clauses;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.cql.aqlparser.AQLBatchParser;
+import org.xwiki.contrib.cql.aqlparser.AQLParseResult;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+
+/**
+ * Measures how the throughput of batch parsing grows with the number of threads. The batch contains distinct
+ * statements, like the CQL macro parameters of a whole wiki.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AQLBatchParserBenchmark
+{
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({ "1", "2", "4", "8" })
+    private int parallelism;
+
+    private ForkJoinPool pool;
+
+    private AQLBatchParser parser;
+
+    private List<String> statements;
+
+    /**
+     * Build the batch of statements and the parser.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.pool = new ForkJoinPool(this.parallelism);
+        this.parser = new AQLBatchParser(new AQLParserOptions(), this.pool);
+        this.statements = new ArrayList<>(BATCH_SIZE);
+        String nested = BenchmarkStatements.get(BenchmarkStatements.NESTED);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // Distinct statements, so that the deduplication doesn't skew the measure
+            this.statements.add(nested + ", label" + i);
+        }
+    }
+
+    /**
+     * Shut the pool down.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.pool.shutdown();
+    }
+
+    /**
+     * @return the parse results
+     */
+    @Benchmark
+    public Map<String, AQLParseResult> parse()
+    {
+        return this.parser.parse(this.statements);
+    }
+}
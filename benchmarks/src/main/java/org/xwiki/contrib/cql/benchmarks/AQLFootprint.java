@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+
+/**
+ * Reports the heap retained by the syntax trees of the benchmark statements, with and without operator positions,
+ * which matters when many parsed statements are cached. The retained size is the difference of the used heap after a
+ * garbage collection between keeping and releasing many copies of the same tree, so run it with a fixed heap size (e.g.
+ * {@code -Xms1g -Xmx1g}) for stable numbers. The source text, shared by the copies, is not counted.
+ *
+ * @version $Id$
+ */
+public final class AQLFootprint
+{
+    private static final int COPIES = 10000;
+
+    private static final int GC_ROUNDS = 3;
+
+    private static final List<String> KINDS = Arrays.asList(
+        BenchmarkStatements.LABEL,
+        BenchmarkStatements.OR_CHAIN,
+        BenchmarkStatements.IN_LIST,
+        BenchmarkStatements.ID_IN_LIST,
+        BenchmarkStatements.NESTED,
+        BenchmarkStatements.QUOTED_DATES,
+        BenchmarkStatements.RESOLVERS
+    );
+
+    private AQLFootprint()
+    {
+    }
+
+    /**
+     * @param args unused
+     * @throws ParserException if a statement is invalid, which is a bug of this report
+     * @throws IOException never
+     */
+    public static void main(String[] args) throws ParserException, IOException
+    {
+        AQLParserOptions withPositions = new AQLParserOptions();
+        AQLParserOptions sharedOperators = new AQLParserOptions().setOperatorPositions(false);
+
+        System.out.printf("%-14s %20s %20s%n", "statement", "bytes/AST positions", "bytes/AST shared ops");
+        for (String kind : KINDS) {
+            String statement = BenchmarkStatements.get(kind);
+            System.out.printf("%-14s %20d %20d%n", kind, retainedBytes(statement, withPositions),
+                retainedBytes(statement, sharedOperators));
+        }
+    }
+
+    private static long retainedBytes(String statement, AQLParserOptions options)
+        throws ParserException, IOException
+    {
+        // Warm up the parser so that its classes and caches are not counted.
+        AQLParser.parse(statement, options);
+
+        AQLStatement[] trees = new AQLStatement[COPIES];
+        for (int i = 0; i < COPIES; i++) {
+            trees[i] = AQLParser.parse(statement, options);
+        }
+        long kept = usedHeap();
+        Arrays.fill(trees, null);
+        long released = usedHeap();
+        return (kept - released) / COPIES;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+
+/**
+ * Measures the parsing of realistic CQL statements.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AQLParserBenchmark
+{
+    @Param({
+        BenchmarkStatements.LABEL,
+        BenchmarkStatements.OR_CHAIN,
+        BenchmarkStatements.IN_LIST,
+        BenchmarkStatements.ID_IN_LIST,
+        BenchmarkStatements.NESTED,
+        BenchmarkStatements.QUOTED_DATES
+    })
+    private String kind;
+
+    private String statement;
+
+    /**
+     * Select the statement to parse.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.statement = BenchmarkStatements.get(this.kind);
+    }
+
+    /**
+     * @return the parsed statement
+     * @throws ParserException if the statement is invalid, which is a bug of this benchmark
+     * @throws IOException never
+     */
+    @Benchmark
+    public AQLStatement parse() throws ParserException, IOException
+    {
+        return AQLParser.parse(this.statement);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * The CQL statements used by the benchmarks, by kind.
+ *
+ * @version $Id$
+ */
+final class BenchmarkStatements
+{
+    static final String LABEL = "label";
+
+    static final String OR_CHAIN = "orChain";
+
+    static final String IN_LIST = "inList";
+
+    static final String ID_IN_LIST = "idInList";
+
+    static final String NESTED = "nested";
+
+    static final String QUOTED_DATES = "quotedDates";
+
+    static final String RESOLVERS = "resolvers";
+
+    private static final int OR_CHAIN_LENGTH = 50;
+
+    private static final int IN_LIST_LENGTH = 200;
+
+    private static final int ID_IN_LIST_LENGTH = 1000;
+
+    private static final long FIRST_ID = 1900000L;
+
+    private static final Map<String, String> STATEMENTS;
+
+    static {
+        Map<String, String> statements = new LinkedHashMap<>();
+        statements.put(LABEL, "label = \"meeting-notes\" and type = page");
+
+        StringJoiner orChain = new StringJoiner(" or ");
+        for (int i = 0; i < OR_CHAIN_LENGTH; i++) {
+            orChain.add("label = \"tag" + i + '"');
+        }
+        statements.put(OR_CHAIN, orChain.toString());
+
+        StringJoiner inList = new StringJoiner(", ", "label in (", ")");
+        for (int i = 0; i < IN_LIST_LENGTH; i++) {
+            inList.add("\"tag" + i + '"');
+        }
+        statements.put(IN_LIST, inList.toString());
+
+        StringJoiner idInList = new StringJoiner(", ", "id in (", ")");
+        for (int i = 0; i < ID_IN_LIST_LENGTH; i++) {
+            idInList.add(String.valueOf(FIRST_ID + i));
+        }
+        statements.put(ID_IN_LIST, idInList.toString());
+
+        statements.put(NESTED, "((title ~ \"release notes\" or label = release) and (creator = currentUser() "
+            + "or (created > 2020-01-01 and lastmodified < now(\"-2w\")))) order by title desc, created");
+        statements.put(QUOTED_DATES, "created >= \"2023-01-01 10:30\" and lastmodified < \"2024/12/31\" "
+            + "and created != \"2022-06-15\"");
+        statements.put(RESOLVERS, "space = DOC and ancestor = 1234 and parent != 5678 order by space");
+
+        STATEMENTS = Collections.unmodifiableMap(statements);
+    }
+
+    private BenchmarkStatements()
+    {
+    }
+
+    /**
+     * @param kind the kind of statement
+     * @return the statement of the given kind
+     */
+    static String get(String kind)
+    {
+        String statement = STATEMENTS.get(kind);
+        if (statement == null) {
+            throw new IllegalArgumentException("Unknown statement kind [" + kind + "]");
+        }
+        return statement;
+    }
+
+    /**
+     * @param depth the number of nested parentheses
+     * @return a statement nesting a clause in the given number of parentheses, each level adding a clause
+     */
+    static String nested(int depth)
+    {
+        StringBuilder statement = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            statement.append('(');
+        }
+        statement.append("title = t");
+        for (int i = 0; i < depth; i++) {
+            statement.append(") or label = l").append(i);
+        }
+        return statement.toString();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.contrib.confluence.resolvers.ConfluencePageIdResolver;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceKeyResolver;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.query.CQLConfiguration;
+import org.xwiki.contrib.cql.query.converters.CQLConversionContext;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrSortParameterConverter;
+import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageIdBatchResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceResolverCache;
+import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the conversion of parsed CQL statements to Solr. The Confluence resolvers, the reference serializer and the
+ * XWiki context are Mockito stubs: the numbers include their (small, constant) cost but not the one of a real
+ * resolution.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CQLToSolrQueryConverterBenchmark
+{
+    private static final String WIKI = "xwiki";
+
+    @Param({
+        BenchmarkStatements.LABEL,
+        BenchmarkStatements.OR_CHAIN,
+        BenchmarkStatements.IN_LIST,
+        BenchmarkStatements.ID_IN_LIST,
+        BenchmarkStatements.NESTED,
+        BenchmarkStatements.QUOTED_DATES,
+        BenchmarkStatements.RESOLVERS
+    })
+    private String kind;
+
+    private String statement;
+
+    private AQLStatement parsedStatement;
+
+    private MockitoComponentManager componentManager;
+
+    private CQLToSolrQueryConverter converter;
+
+    /**
+     * Set up the converters with stub resolvers and parse the statement to convert.
+     *
+     * @throws Exception if the setup fails
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.componentManager = new MockitoComponentManager();
+        this.componentManager.registerComponent(CQLToSolrQueryConverter.class);
+        this.componentManager.registerComponent(DefaultCQLToSolrAtomConverter.class);
+        this.componentManager.registerComponent(CQLConversionContext.class);
+        this.componentManager.registerComponent(ConfluencePageIdBatchResolver.class);
+        this.componentManager.registerComponent(ConfluenceResolverCache.class);
+        this.componentManager.registerMockComponent(CQLConfiguration.class);
+        this.componentManager.registerComponent(DefaultCQLToSolrSortParameterConverter.class);
+        this.componentManager.registerComponent(AncestorCQLToSolrAtomConverter.class);
+        this.componentManager.registerComponent(ContentCQLToSolrAtomConverter.class);
+        this.componentManager.registerComponent(ParentCQLToSolrAtomConverter.class);
+        this.componentManager.registerMockComponent(ObservationManager.class);
+
+        SpaceReference space = new SpaceReference(WIKI, "Documentation");
+        DocumentReference document = new DocumentReference("WebHome", space);
+
+        EntityReferenceSerializer<String> serializer = this.componentManager.registerMockComponent(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class), "local");
+        when(serializer.serialize(any())).thenAnswer(invocation -> invocation.<EntityReference>getArgument(0).getName());
+
+        ConfluenceSpaceKeyResolver spaceKeyResolver =
+            this.componentManager.registerMockComponent(ConfluenceSpaceKeyResolver.class);
+        when(spaceKeyResolver.getSpaceByKey(any())).thenReturn(space);
+        ConfluenceSpaceResolver spaceResolver =
+            this.componentManager.registerMockComponent(ConfluenceSpaceResolver.class);
+        when(spaceResolver.getSpace(any())).thenReturn(space);
+        ConfluencePageIdResolver pageIdResolver =
+            this.componentManager.registerMockComponent(ConfluencePageIdResolver.class);
+        when(pageIdResolver.getDocumentById(anyLong())).thenReturn(document);
+
+        XWikiDocument currentDocument = mock(XWikiDocument.class);
+        when(currentDocument.getDocumentReference()).thenReturn(document);
+        XWikiContext context = mock(XWikiContext.class);
+        when(context.getDoc()).thenReturn(currentDocument);
+        when(context.getUserReference()).thenReturn(new DocumentReference(WIKI, "XWiki", "Admin"));
+        Provider<XWikiContext> contextProvider = this.componentManager.registerMockComponent(
+            new DefaultParameterizedType(null, Provider.class, XWikiContext.class));
+        when(contextProvider.get()).thenReturn(context);
+
+        this.converter = this.componentManager.getInstance(CQLToSolrQueryConverter.class);
+        this.statement = BenchmarkStatements.get(this.kind);
+        this.parsedStatement = AQLParser.parse(this.statement);
+    }
+
+    /**
+     * Dispose the components.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.componentManager.dispose();
+    }
+
+    /**
+     * @return the Solr statement
+     * @throws Exception if the conversion fails, which is a bug of this benchmark
+     */
+    @Benchmark
+    public String getSolrStatement() throws Exception
+    {
+        return this.converter.getSolrStatement(this.parsedStatement);
+    }
+
+    /**
+     * @return the Solr sort parameter
+     * @throws Exception if the conversion fails, which is a bug of this benchmark
+     */
+    @Benchmark
+    public String getSolrSortParameter() throws Exception
+    {
+        return this.converter.getSolrSortParameter(this.parsedStatement);
+    }
+
+    /**
+     * @return the Solr statement of the statement parsed during the operation
+     * @throws Exception if the parsing or the conversion fails, which is a bug of this benchmark
+     */
+    @Benchmark
+    public String parseAndConvert() throws Exception
+    {
+        return this.converter.getSolrStatement(AQLParser.parse(this.statement));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Configuration of the CQL query module.
+ * @since 0.2.1
+ * @version $Id$
+ */
+@Role
+@Unstable
+public interface CQLConfiguration
+{
+    /**
+     * @return the maximum number of parsed CQL statements to cache. 0 disables the cache.
+     */
+    int getParserCacheMaxEntries();
+
+    /**
+     * @return the maximum total length of the parsed CQL statements to cache
+     */
+    long getParserCacheMaxWeight();
+
+    /**
+     * @return whether the parsed CQL statements are simplified before being converted to Solr queries
+     */
+    boolean isNormalizationEnabled();
+
+    /**
+     * @return the maximum number of characters of a CQL statement. 0 means no limit.
+     */
+    int getParserMaxLength();
+
+    /**
+     * @return the maximum number of nested parentheses in a CQL statement. 0 means no limit.
+     */
+    int getParserMaxDepth();
+
+    /**
+     * @return the maximum number of atomic clauses in a CQL statement. 0 means no limit.
+     */
+    int getParserMaxClauses();
+
+    /**
+     * @return the maximum number of values in an IN expression. 0 means no limit.
+     */
+    int getParserMaxInValues();
+
+    /**
+     * @return the maximum number of arguments of a function call. 0 means no limit.
+     */
+    int getParserMaxFunctionArguments();
+
+    /**
+     * @return the maximum number of characters of the Solr statement a CQL statement is converted to. 0 means no
+     *     limit.
+     */
+    int getSolrStatementMaxLength();
+
+    /**
+     * @return whether the top level clauses of a conjunction which don't contribute to the relevance of the results
+     *     are sent to Solr as filter queries, instead of being part of the main Solr statement
+     */
+    boolean isSolrFilterQueriesEnabled();
+
+    /**
+     * @return the maximum number of Solr conversions of CQL statements to cache. A statement depending on the context
+     *     (see {@link org.xwiki.contrib.cql.query.converters.CQLContextInput}) has a conversion for each value of the
+     *     inputs it depends on. 0 disables the cache.
+     */
+    int getSolrCacheMaxEntries();
+
+    /**
+     * @return the maximum number of results of the Confluence page id, space key and space resolvers to cache,
+     *     including the ids and keys which are not found. 0 disables the cache.
+     */
+    int getResolverCacheMaxEntries();
+}
@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The inputs from the context that the conversion of a CQL statement can depend on.
+ * @since 0.2.1
+ * @version $Id$
+ * @see CQLConversionContext
+ */
+@Unstable
+public enum CQLContextInput
+{
+    /**
+     * The current user, read for instance by {@code currentUser()}.
+     */
+    USER,
+
+    /**
+     * The current document, read for instance by {@code currentContent()}.
+     */
+    DOCUMENT,
+
+    /**
+     * The space of the current document, read for instance by {@code currentSpace()}.
+     */
+    SPACE,
+
+    /**
+     * The current wiki, in which Confluence ids and space keys are resolved.
+     */
+    WIKI,
+
+    /**
+     * The current time. The date functions are converted to Solr date math, which Solr evaluates, so they don't read
+     * it. A conversion reading the current time is never cached.
+     */
+    CLOCK
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Records the inputs from the context read while converting a CQL statement to Solr, so that the result of the
+ * conversion can be cached for all the contexts sharing the values of these inputs. Converters reading the context
+ * must call {@link #read(CQLContextInput)}, otherwise the result of their conversion could be reused in a context it
+ * doesn't apply to.
+ * @since 0.2.1
+ * @version $Id$
+ */
+@Component(roles = CQLConversionContext.class)
+@Singleton
+@Unstable
+public class CQLConversionContext
+{
+    private final ThreadLocal<Tracking> tracking = new ThreadLocal<>();
+
+    /**
+     * Record that the conversion being tracked in the current thread read the given input. Does nothing when no
+     * conversion is tracked.
+     *
+     * @param input the input read from the context
+     */
+    public void read(CQLContextInput input)
+    {
+        for (Tracking t = this.tracking.get(); t != null; t = t.enclosing) {
+            t.inputs.add(input);
+        }
+    }
+
+    /**
+     * Start recording the inputs read in the current thread. Tracking can be nested: the inputs read are also recorded
+     * by the enclosing tracking.
+     */
+    public void startTracking()
+    {
+        this.tracking.set(new Tracking(this.tracking.get()));
+    }
+
+    /**
+     * Stop recording the inputs read in the current thread.
+     *
+     * @return the inputs read since {@link #startTracking()} was called
+     */
+    public Set<CQLContextInput> stopTracking()
+    {
+        Tracking t = this.tracking.get();
+        if (t == null) {
+            return EnumSet.noneOf(CQLContextInput.class);
+        }
+
+        if (t.enclosing == null) {
+            this.tracking.remove();
+        } else {
+            this.tracking.set(t.enclosing);
+        }
+        return t.inputs;
+    }
+
+    private static final class Tracking
+    {
+        private final Set<CQLContextInput> inputs = EnumSet.noneOf(CQLContextInput.class);
+
+        private final Tracking enclosing;
+
+        Tracking(Tracking enclosing)
+        {
+            this.enclosing = enclosing;
+        }
+    }
+}
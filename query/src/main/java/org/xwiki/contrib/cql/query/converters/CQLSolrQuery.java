@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The Solr conversion of a CQL statement, in which the clauses that only restrict the results are kept apart from
+ * the main statement as filter queries. Solr doesn't compute scores for filter queries and caches their results
+ * independently of the main statement.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class CQLSolrQuery
+{
+    private final String statement;
+
+    private final List<String> filterQueries;
+
+    CQLSolrQuery(String statement, List<String> filterQueries)
+    {
+        this.statement = statement;
+        this.filterQueries = filterQueries;
+    }
+
+    /**
+     * @return the main Solr statement, made of the clauses contributing to the relevance of the results
+     */
+    public String getStatement()
+    {
+        return this.statement;
+    }
+
+    /**
+     * @return the Solr filter queries, which all the results must match, or an empty list if there are none
+     */
+    public List<String> getFilterQueries()
+    {
+        return this.filterQueries;
+    }
+}
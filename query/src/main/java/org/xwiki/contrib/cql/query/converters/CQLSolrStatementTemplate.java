@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+import org.xwiki.contrib.cql.aqlparser.AQLPreparedStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The Solr conversion of a prepared CQL statement. The clauses which don't depend on parameter values or on the
+ * context are converted once, when the template is built; only the remaining atomic clauses are bound and converted
+ * each time a Solr statement is requested. The template may keep the clauses which only restrict the results apart,
+ * as filter queries, see {@link CQLToSolrQueryConverter#getSolrQueryTemplate(AQLPreparedStatement)}.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Unstable
+public final class CQLSolrStatementTemplate
+{
+    private static final int ESTIMATED_CLAUSE_LENGTH = 16;
+
+    private final CQLToSolrQueryConverter converter;
+
+    private final AQLPreparedStatement statement;
+
+    /**
+     * The parts of the main Solr statement: either converted Solr strings, or atomic clauses to convert.
+     */
+    private final Object[] parts;
+
+    /**
+     * The parts of each filter query, like for the main statement.
+     */
+    private final List<Object[]> filterQueryParts;
+
+    private final String solrSortParameter;
+
+    CQLSolrStatementTemplate(CQLToSolrQueryConverter converter, AQLPreparedStatement statement, List<Object> parts,
+        List<List<Object>> filterQueryParts, String solrSortParameter)
+    {
+        this.converter = converter;
+        this.statement = statement;
+        this.parts = parts.toArray();
+        this.filterQueryParts = new ArrayList<>(filterQueryParts.size());
+        for (List<Object> filterQuery : filterQueryParts) {
+            this.filterQueryParts.add(filterQuery.toArray());
+        }
+        this.solrSortParameter = solrSortParameter;
+    }
+
+    /**
+     * @return the prepared statement from which this template was built
+     */
+    public AQLPreparedStatement getPreparedStatement()
+    {
+        return this.statement;
+    }
+
+    /**
+     * @return the Solr sort parameter of the statement, which doesn't depend on the parameter values
+     */
+    public String getSolrSortParameter()
+    {
+        return this.solrSortParameter;
+    }
+
+    /**
+     * @return whether the whole Solr query was converted when building the template, in which case it doesn't depend
+     *     on any parameter value or on the context
+     */
+    public boolean isConstant()
+    {
+        if (!isConstant(this.parts)) {
+            return false;
+        }
+        for (Object[] filterQuery : this.filterQueryParts) {
+            if (!isConstant(filterQuery)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isConstant(Object[] parts)
+    {
+        return parts.length == 1 && parts[0] instanceof String;
+    }
+
+    /**
+     * @param positionalValues the values of the positional parameters, in order
+     * @param namedValues the values of the named parameters
+     * @return the Solr statement corresponding to the prepared statement bound to the given values
+     * @throws ParserException if a parameter can't be bound to the given values
+     * @throws ConversionException if a bound clause can't be converted
+     * @see AQLPreparedStatement#bind(List, Map)
+     */
+    public String getSolrStatement(List<?> positionalValues, Map<String, ?> namedValues)
+        throws ParserException, ConversionException
+    {
+        return getSolrStatement(positionalValues, namedValues, AQLParserOptions.UNLIMITED);
+    }
+
+    /**
+     * @param positionalValues the values of the positional parameters, in order
+     * @param namedValues the values of the named parameters
+     * @param maxLength the maximum length of the Solr statement, or {@link AQLParserOptions#UNLIMITED}
+     * @return the Solr statement corresponding to the prepared statement bound to the given values. If the template
+     *     has filter queries, this is the conjunction of the main statement and of the filter queries.
+     * @throws ParserException if a parameter can't be bound to the given values
+     * @throws ConversionException if a bound clause can't be converted, or if the Solr statement is too long
+     * @see AQLPreparedStatement#bind(List, Map)
+     * @see CQLToSolrQueryConverter#getSolrStatement(org.xwiki.contrib.cql.aqlparser.ast.AQLStatement, int)
+     */
+    public String getSolrStatement(List<?> positionalValues, Map<String, ?> namedValues, int maxLength)
+        throws ParserException, ConversionException
+    {
+        if (this.filterQueryParts.isEmpty()) {
+            String solrStatement = getSolrString(this.parts, 0, positionalValues, namedValues, maxLength);
+            CQLToSolrQueryConverter.checkSolrLength(solrStatement.length(), maxLength, this.statement.getStatement());
+            return solrStatement;
+        }
+
+        CQLSolrQuery solrQuery = getSolrQuery(positionalValues, namedValues, maxLength);
+        StringBuilder solrStatement = new StringBuilder();
+        solrStatement.append('(').append(solrQuery.getStatement()).append(')');
+        for (String filterQuery : solrQuery.getFilterQueries()) {
+            solrStatement.append(" AND (").append(filterQuery).append(')');
+        }
+        CQLToSolrQueryConverter.checkSolrLength(solrStatement.length(), maxLength, this.statement.getStatement());
+        return solrStatement.toString();
+    }
+
+    /**
+     * @param positionalValues the values of the positional parameters, in order
+     * @param namedValues the values of the named parameters
+     * @param maxLength the maximum total length of the Solr statement and filter queries, or
+     *     {@link AQLParserOptions#UNLIMITED}
+     * @return the Solr statement and filter queries corresponding to the prepared statement bound to the given values
+     * @throws ParserException if a parameter can't be bound to the given values
+     * @throws ConversionException if a bound clause can't be converted, or if the Solr query is too long
+     * @see CQLToSolrQueryConverter#getSolrQuery(org.xwiki.contrib.cql.aqlparser.ast.AQLStatement, int)
+     */
+    public CQLSolrQuery getSolrQuery(List<?> positionalValues, Map<String, ?> namedValues, int maxLength)
+        throws ParserException, ConversionException
+    {
+        String solrStatement = getSolrString(this.parts, 0, positionalValues, namedValues, maxLength);
+        int length = solrStatement.length();
+        List<String> filterQueries = new ArrayList<>(this.filterQueryParts.size());
+        for (Object[] filterQuery : this.filterQueryParts) {
+            String solrFilterQuery = getSolrString(filterQuery, length, positionalValues, namedValues, maxLength);
+            length += solrFilterQuery.length();
+            filterQueries.add(solrFilterQuery);
+        }
+
+        CQLToSolrQueryConverter.checkSolrLength(length, maxLength, this.statement.getStatement());
+        return new CQLSolrQuery(solrStatement, filterQueries);
+    }
+
+    /**
+     * @param previousLength the length of the Solr strings already computed for the same query
+     */
+    private String getSolrString(Object[] stringParts, int previousLength, List<?> positionalValues,
+        Map<String, ?> namedValues, int maxLength) throws ParserException, ConversionException
+    {
+        if (isConstant(stringParts)) {
+            return (String) stringParts[0];
+        }
+
+        StringBuilder solrString = new StringBuilder(stringParts.length * ESTIMATED_CLAUSE_LENGTH);
+        for (Object part : stringParts) {
+            if (part instanceof String) {
+                solrString.append((String) part);
+            } else {
+                AQLAtomicClause atom = this.statement.bind((AQLAtomicClause) part, positionalValues, namedValues);
+                solrString.append(this.converter.convertClauseToSolr(atom));
+                CQLToSolrQueryConverter.checkSolrLength(previousLength + solrString.length(), maxLength, atom);
+            }
+        }
+        return solrString.toString();
+    }
+}
@@ -21,8 +21,19 @@ package org.xwiki.contrib.cql.query.converters;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.cql.aqlparser.AQLNormalizer;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+import org.xwiki.contrib.cql.aqlparser.AQLPreparedStatement;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLOrderByClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
@@ -30,10 +41,31 @@ import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLNode;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLVisitor;
+import org.xwiki.contrib.cql.query.converters.internal.AbstractIdCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageIdBatchResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.stability.Unstable;
 
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
@@ -50,10 +82,25 @@ import static org.xwiki.contrib.cql.query.converters.Utils.betweenParentheses;
 @Component (roles = CQLToSolrQueryConverter.class)
 @Singleton
 @Unstable
-public class CQLToSolrQueryConverter
+public class CQLToSolrQueryConverter implements Initializable, Disposable
 {
     private static final String UNEXP = " This is unexpected, please report an issue";
 
+    private static final String MATCH_ALL = "*:*";
+
+    /**
+     * Used in place of a converter for the fields handled by no specialized converter, since the dispatch table can't
+     * contain null.
+     */
+    private static final CQLToSolrAtomConverter NO_CONVERTER = atom -> null;
+
+    /**
+     * The maximum number of fields, handled by a Pattern or not handled at all, for which the converter is remembered,
+     * and of sort parameters remembered for each direction. Fields come from the statements, so this bounds the size
+     * of the caches.
+     */
+    private static final int MAX_MATCHED_FIELDS = 1024;
+
     @Inject
     private Logger logger;
 
@@ -67,6 +114,53 @@ public class CQLToSolrQueryConverter
     @Inject
     private ComponentManager componentManager;
 
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private ConfluencePageIdBatchResolver idBatchResolver;
+
+    @Inject
+    private CQLConversionContext conversionContext;
+
+    private static final ConstantChecker CONSTANT_CHECKER = new ConstantChecker();
+
+    private static final RelevanceChecker RELEVANCE_CHECKER = new RelevanceChecker();
+
+    /**
+     * The converters handling each field, or null when they need to be computed again because a converter has been
+     * registered or unregistered.
+     */
+    private volatile AtomConverterDispatch atomConverterDispatch;
+
+    /**
+     * The sort field converters, in the order they are tried, or null when they need to be computed again because a
+     * converter has been registered or unregistered.
+     */
+    private volatile SortConverterChain sortConverterChain;
+
+    /**
+     * Incremented each time the converters are invalidated, to avoid keeping converters invalidated while they were
+     * being looked up.
+     */
+    private int converterGeneration;
+
+    private final EventListener converterListener = new ConverterListener();
+
+    private final ClauseConverter clauseConverter = new ClauseConverter();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.observationManager.addListener(this.converterListener);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.observationManager.removeListener(this.converterListener.getName());
+    }
+
     /**
      * @return the Solr sort parameter of the given cql statement
      * @param cql the cql statement
@@ -93,35 +187,57 @@ public class CQLToSolrQueryConverter
     private String getSolrSortParameter(AQLStatement cql, AQLOrderByClause orderByParameter, String cqlField)
         throws ConversionException
     {
-        String solrSortParameter = null;
-        List<Object> converters;
+        SortConverterChain chain = this.sortConverterChain;
+        if (chain == null) {
+            chain = buildSortConverterChain(orderByParameter);
+        }
 
-        try {
-            converters = componentManager.getInstanceList(CQLToSolrSortFieldConverter.class);
-        } catch (ComponentLookupException e) {
-            throw new ConversionException(e, orderByParameter.getParserState());
+        String solrSortParameter = chain.getSolrSortParameter(cql, orderByParameter, cqlField);
+        if (solrSortParameter == null) {
+            throw new ConversionException(String.format("Ordering by field [%s] is not supported", cqlField),
+                orderByParameter.getParserState());
+        }
+        return solrSortParameter;
+    }
+
+    private synchronized SortConverterChain buildSortConverterChain(AQLOrderByClause orderByParameter)
+        throws ConversionException
+    {
+        SortConverterChain chain = this.sortConverterChain;
+        if (chain != null) {
+            return chain;
         }
 
-        for (Object converterObj : converters) {
-            CQLToSolrSortFieldConverter converter = (CQLToSolrSortFieldConverter) converterObj;
+        int generation = this.converterGeneration;
+        List<ComponentDescriptor<CQLToSolrSortFieldConverter>> descriptors = new ArrayList<>(
+            this.componentManager.<CQLToSolrSortFieldConverter>getComponentDescriptorList(
+                (Type) CQLToSolrSortFieldConverter.class));
+        // The sort is stable, so converters of the same priority keep the order of the component manager
+        descriptors.sort(Comparator.comparingInt(ComponentDescriptor::getRoleHintPriority));
+
+        List<CQLToSolrSortFieldConverter> converters = new ArrayList<>(descriptors.size());
+        for (ComponentDescriptor<CQLToSolrSortFieldConverter> descriptor : descriptors) {
+            CQLToSolrSortFieldConverter converter;
+            try {
+                converter =
+                    this.componentManager.getInstance(CQLToSolrSortFieldConverter.class, descriptor.getRoleHint());
+            } catch (ComponentLookupException e) {
+                throw new ConversionException(e, orderByParameter.getParserState());
+            }
 
-            if (converter != sortFieldConverter) {
-                solrSortParameter = converter.getSolrSortParameter(cql, orderByParameter, cqlField);
-                if (solrSortParameter != null && !solrSortParameter.isEmpty()) {
-                    break;
-                }
+            if (converter != this.sortFieldConverter) {
+                converters.add(converter);
             }
         }
+        // The default converter is the last resort
+        converters.add(this.sortFieldConverter);
 
-        if (solrSortParameter == null || solrSortParameter.isEmpty()) {
-            solrSortParameter = sortFieldConverter.getSolrSortParameter(cql, orderByParameter, cqlField);
+        chain = new SortConverterChain(converters);
+        if (generation == this.converterGeneration) {
+            this.sortConverterChain = chain;
         }
 
-        if (solrSortParameter == null || solrSortParameter.isEmpty()) {
-            throw new ConversionException(String.format("Ordering by field [%s] is not supported", cqlField),
-                orderByParameter.getParserState());
-        }
-        return solrSortParameter;
+        return chain;
     }
 
     /**
@@ -132,50 +248,353 @@ public class CQLToSolrQueryConverter
     public String getSolrStatement(AQLStatement cql)
         throws ConversionException
     {
-        return convertToSolr(cql);
+        return getSolrStatement(cql, AQLParserOptions.UNLIMITED);
+    }
+
+    /**
+     * @return the corresponding Solr statement
+     * @param cql the cql statement
+     * @param maxLength the maximum length of the Solr statement, or {@link AQLParserOptions#UNLIMITED}. The
+     *     conversion stops as soon as it is exceeded.
+     * @throws ConversionException if something wrong happens, including when the Solr statement is too long
+     * @since 0.2.1
+     */
+    public String getSolrStatement(AQLStatement cql, int maxLength)
+        throws ConversionException
+    {
+        return convertWithIdBatch(cql, () -> convertToSolr(cql, new ConversionBudget(maxLength)));
     }
 
-    private String convertToSolr(AQLStatement expression) throws ConversionException
+    /**
+     * Convert a statement to Solr, moving the clauses which only restrict the results to filter queries. The clauses
+     * are only split when the statement is a conjunction: each of its top level clauses which is negated or doesn't
+     * use the contains operator (~) becomes a filter query. The main statement is made of the other clauses, or
+     * matches all the documents if there are none.
+     *
+     * @return the corresponding Solr statement and filter queries
+     * @param cql the cql statement
+     * @param maxLength the maximum total length of the Solr statement and filter queries, or
+     *     {@link AQLParserOptions#UNLIMITED}. The conversion stops as soon as it is exceeded.
+     * @throws ConversionException if something wrong happens, including when the Solr query is too long
+     * @since 0.2.1
+     */
+    public CQLSolrQuery getSolrQuery(AQLStatement cql, int maxLength) throws ConversionException
     {
-        return convertToSolr(expression.getClausesWithNextOp());
+        return convertWithIdBatch(cql, () -> convertToSolrQuery(cql, new ConversionBudget(maxLength)));
     }
 
-    private String convertToSolr(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    /**
+     * Simplify a statement with {@link AQLNormalizer}. The = and IN clauses are only rewritten into each other for
+     * the fields converted by the default atom converter, which converts each value of an IN clause like the value
+     * of a = clause. Specialized converters may handle them differently.
+     *
+     * @return a simplified statement with the same meaning as the given statement
+     * @param cql the cql statement
+     * @throws ConversionException if the atom converters can't be looked up
+     * @since 0.2.1
+     */
+    public AQLStatement normalize(AQLStatement cql) throws ConversionException
+    {
+        AtomConverterDispatch dispatch = getAtomConverterDispatch(cql);
+        return AQLNormalizer.normalize(cql, field -> dispatch.get(field.toLowerCase()) == null);
+    }
+
+    private <T> T convertWithIdBatch(AQLStatement cql, Conversion<T> conversion) throws ConversionException
+    {
+        // The Confluence ids of the whole statement are resolved once, before converting the clauses using them
+        List<Long> ids = new ArrayList<>();
+        collectIds(cql.getClausesWithNextOp(), ids);
+        if (ids.isEmpty()) {
+            return conversion.convert();
+        }
+
+        Map<Long, EntityReference> previousBatch = this.idBatchResolver.startBatch(ids);
+        try {
+            return conversion.convert();
+        } finally {
+            this.idBatchResolver.endBatch(previousBatch);
+        }
+    }
+
+    private CQLSolrQuery convertToSolrQuery(AQLStatement cql, ConversionBudget budget) throws ConversionException
+    {
+        List<AQLClauseWithNextOperator> clausesWithNextOp = cql.getClausesWithNextOp();
+        if (!isConjunction(clausesWithNextOp)) {
+            return new CQLSolrQuery(convertToSolr(cql, budget), Collections.emptyList());
+        }
+
+        List<String> relevanceClauses = new ArrayList<>();
+        List<String> filterQueries = new ArrayList<>();
+        boolean negated = false;
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            String solrClause = convertClauseToSolr(clause, budget);
+            if (negated) {
+                filterQueries.add('-' + betweenParentheses(solrClause));
+            } else if (Boolean.TRUE.equals(clause.accept(RELEVANCE_CHECKER, null))) {
+                relevanceClauses.add(solrClause);
+            } else {
+                filterQueries.add(solrClause);
+            }
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            negated = nextOp != null && nextOp.isNot();
+        }
+
+        String statement;
+        if (relevanceClauses.isEmpty()) {
+            statement = MATCH_ALL;
+        } else if (relevanceClauses.size() == 1) {
+            statement = relevanceClauses.get(0);
+        } else {
+            StringBuilder solrQuery = new StringBuilder();
+            for (String solrClause : relevanceClauses) {
+                if (solrQuery.length() > 0) {
+                    solrQuery.append(" AND ");
+                }
+                solrQuery.append(betweenParentheses(solrClause));
+            }
+            statement = solrQuery.toString();
+        }
+
+        int length = statement.length();
+        for (String filterQuery : filterQueries) {
+            length += filterQuery.length();
+        }
+        budget.check(length, cql);
+        return new CQLSolrQuery(statement, filterQueries);
+    }
+
+    /**
+     * @return whether the clauses are only separated by AND or AND NOT, in which case each of them can be sent to Solr
+     *     separately
+     */
+    private static boolean isConjunction(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (nextOp != null && !nextOp.isAnd()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String convertToSolr(AQLStatement cql, ConversionBudget budget) throws ConversionException
+    {
+        String solrStatement = convertToSolr(cql.getClausesWithNextOp(), budget);
+        budget.check(solrStatement.length(), cql);
+        return solrStatement;
+    }
+
+    private void collectIds(List<AQLClauseWithNextOperator> clausesWithNextOp, List<Long> ids)
         throws ConversionException
     {
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            if (clause instanceof AQLClausesWithNextOperator) {
+                collectIds(((AQLClausesWithNextOperator) clause).getClausesWithNextOp(), ids);
+            } else if (clause instanceof AQLAtomicClause) {
+                AQLAtomicClause atom = (AQLAtomicClause) clause;
+                CQLToSolrAtomConverter converter = getSpecializedCqlToSolrAtomConverter(atom);
+                if (converter instanceof AbstractIdCQLToSolrAtomConverter) {
+                    ((AbstractIdCQLToSolrAtomConverter) converter).collectIds(atom, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert a prepared statement to a template from which the Solr statement can be computed for any parameter
+     * values, converting the clauses which don't depend on the values or on the context only once.
+     *
+     * @return the Solr statement template of the given prepared statement
+     * @param prepared the prepared cql statement
+     * @throws ConversionException if something wrong happens
+     * @since 0.2.1
+     */
+    public CQLSolrStatementTemplate getSolrStatementTemplate(AQLPreparedStatement prepared)
+        throws ConversionException
+    {
+        AQLStatement cql = prepared.getStatement();
+        List<Object> parts = new ArrayList<>();
+        addTemplateParts(cql.getClausesWithNextOp(), parts);
+        return new CQLSolrStatementTemplate(this, prepared, mergeConstantParts(parts), Collections.emptyList(),
+            getSolrSortParameter(cql));
+    }
+
+    /**
+     * Convert a prepared statement to a template, moving the clauses which only restrict the results to filter queries
+     * like {@link #getSolrQuery(AQLStatement, int)} does. The clauses which don't depend on the values or on the
+     * context are only converted once.
+     *
+     * @return the Solr query template of the given prepared statement
+     * @param prepared the prepared cql statement
+     * @throws ConversionException if something wrong happens
+     * @since 0.2.1
+     */
+    public CQLSolrStatementTemplate getSolrQueryTemplate(AQLPreparedStatement prepared) throws ConversionException
+    {
+        AQLStatement cql = prepared.getStatement();
+        if (!isConjunction(cql.getClausesWithNextOp())) {
+            return getSolrStatementTemplate(prepared);
+        }
+
+        List<AbstractAQLClause> relevanceClauses = new ArrayList<>();
+        List<List<Object>> filterQueries = new ArrayList<>();
+        boolean negated = false;
+        for (AQLClauseWithNextOperator clauseWithNextOp : cql.getClausesWithNextOp()) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            if (negated) {
+                List<Object> parts = new ArrayList<>();
+                parts.add("-(");
+                addTemplateParts(clause, parts);
+                parts.add(")");
+                filterQueries.add(mergeConstantParts(parts));
+            } else if (Boolean.TRUE.equals(clause.accept(RELEVANCE_CHECKER, null))) {
+                relevanceClauses.add(clause);
+            } else {
+                List<Object> parts = new ArrayList<>();
+                addTemplateParts(clause, parts);
+                filterQueries.add(mergeConstantParts(parts));
+            }
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            negated = nextOp != null && nextOp.isNot();
+        }
+
+        // Mirrors convertToSolrQuery()
+        List<Object> parts = new ArrayList<>();
+        if (relevanceClauses.isEmpty()) {
+            parts.add(MATCH_ALL);
+        } else if (relevanceClauses.size() == 1) {
+            addTemplateParts(relevanceClauses.get(0), parts);
+        } else {
+            for (AbstractAQLClause clause : relevanceClauses) {
+                parts.add(parts.isEmpty() ? "(" : ") AND (");
+                addTemplateParts(clause, parts);
+            }
+            parts.add(")");
+        }
+
+        return new CQLSolrStatementTemplate(this, prepared, mergeConstantParts(parts), filterQueries,
+            getSolrSortParameter(cql));
+    }
+
+    /**
+     * @return the Solr clause corresponding to the given clause, which must not contain any parameter
+     * @param clause the clause to convert
+     * @throws ConversionException if something wrong happens
+     */
+    String convertClauseToSolr(AbstractAQLClause clause) throws ConversionException
+    {
+        return convertClauseToSolr(clause, new ConversionBudget(AQLParserOptions.UNLIMITED));
+    }
+
+    private String convertClauseToSolr(AbstractAQLClause clause, ConversionBudget budget) throws ConversionException
+    {
+        String solrClause = clause.accept(this.clauseConverter, budget);
+
+        if (solrClause == null || solrClause.isEmpty()) {
+            throw new ConversionException("BUG: Failed to convert this clause." + UNEXP, clause.getParserState());
+        }
+
+        return solrClause;
+    }
+
+    private void addTemplateParts(List<AQLClauseWithNextOperator> clausesWithNextOp, List<Object> parts)
+        throws ConversionException
+    {
+        // Mirrors convertToSolr(List), keeping the clauses depending on values or on the context for later
         if (clausesWithNextOp.size() == 1) {
-            return convertToSolr(clausesWithNextOp.get(0));
+            addTemplateParts(clausesWithNextOp.get(0).getClause(), parts);
+            return;
         }
 
-        StringBuilder solrQuery = new StringBuilder();
         for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
-            String solrClause = convertToSolr(clauseWithNextOp);
-            solrQuery.append(betweenParentheses(solrClause));
+            parts.add("(");
+            addTemplateParts(clauseWithNextOp.getClause(), parts);
+            parts.add(")");
             AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
             if (nextOp != null) {
-                solrQuery.append(nextOp.isAnd() ? " AND " : " OR ").append(nextOp.isNot() ? "-" : "");
+                parts.add((nextOp.isAnd() ? " AND " : " OR ") + (nextOp.isNot() ? "-" : ""));
             }
         }
-
-        return solrQuery.toString().trim();
     }
 
-    private String convertToSolr(AQLClauseWithNextOperator clauseWithNextOp) throws ConversionException
+    private void addTemplateParts(AbstractAQLClause clause, List<Object> parts) throws ConversionException
     {
         String solrClause = null;
-        AbstractAQLClause clause = clauseWithNextOp.getClause();
-        if (clause instanceof AQLAtomicClause) {
-            solrClause = convertToSolr((AQLAtomicClause) clause);
+        if (Boolean.TRUE.equals(clause.accept(CONSTANT_CHECKER, null))) {
+            solrClause = convertConstantClause(clause);
+        }
+
+        if (solrClause != null) {
+            parts.add(solrClause);
         } else if (clause instanceof AQLClausesWithNextOperator) {
-            solrClause =
-                convertToSolr(((AQLClausesWithNextOperator) clause).getClausesWithNextOp());
+            addTemplateParts(((AQLClausesWithNextOperator) clause).getClausesWithNextOp(), parts);
+        } else {
+            parts.add(clause);
         }
+    }
 
-        if (solrClause == null || solrClause.isEmpty()) {
-            throw new ConversionException("BUG: Failed to convert this clause." + UNEXP, clause.getParserState());
+    /**
+     * @return the Solr conversion of the given clause, or null if it reads the context, like the clauses resolving
+     *     Confluence ids or space keys in the current wiki, in which case it must be converted each time
+     */
+    private String convertConstantClause(AbstractAQLClause clause) throws ConversionException
+    {
+        String solrClause;
+        Set<CQLContextInput> readInputs;
+        this.conversionContext.startTracking();
+        try {
+            solrClause = convertClauseToSolr(clause);
+        } finally {
+            readInputs = this.conversionContext.stopTracking();
         }
 
-        return solrClause;
+        return readInputs.isEmpty() ? solrClause : null;
+    }
+
+    private static List<Object> mergeConstantParts(List<Object> parts)
+    {
+        List<Object> merged = new ArrayList<>(parts.size());
+        StringBuilder constant = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof String) {
+                constant.append((String) part);
+            } else {
+                if (constant.length() > 0) {
+                    merged.add(constant.toString());
+                    constant.setLength(0);
+                }
+                merged.add(part);
+            }
+        }
+
+        if (constant.length() > 0) {
+            merged.add(constant.toString());
+        }
+
+        return merged;
+    }
+
+    private String convertToSolr(List<AQLClauseWithNextOperator> clausesWithNextOp, ConversionBudget budget)
+        throws ConversionException
+    {
+        if (clausesWithNextOp.size() == 1) {
+            return convertClauseToSolr(clausesWithNextOp.get(0).getClause(), budget);
+        }
+
+        StringBuilder solrQuery = new StringBuilder();
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            String solrClause = convertClauseToSolr(clauseWithNextOp.getClause(), budget);
+            solrQuery.append(betweenParentheses(solrClause));
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (nextOp != null) {
+                solrQuery.append(nextOp.isAnd() ? " AND " : " OR ").append(nextOp.isNot() ? "-" : "");
+            }
+        }
+
+        return solrQuery.toString().trim();
     }
 
     private String convertToSolr(AQLAtomicClause atom) throws ConversionException
@@ -192,49 +611,362 @@ public class CQLToSolrQueryConverter
 
     private CQLToSolrAtomConverter getSpecializedCqlToSolrAtomConverter(AQLAtomicClause atom) throws ConversionException
     {
-        String lowerField = atom.getField().toLowerCase();
+        return getAtomConverterDispatch(atom).get(atom.getField().toLowerCase());
+    }
 
+    private AtomConverterDispatch getAtomConverterDispatch(AbstractAQLNode node) throws ConversionException
+    {
+        AtomConverterDispatch dispatch = this.atomConverterDispatch;
+        if (dispatch == null) {
+            dispatch = buildAtomConverterDispatch(node);
+        }
+
+        return dispatch;
+    }
+
+    private synchronized AtomConverterDispatch buildAtomConverterDispatch(AbstractAQLNode node)
+        throws ConversionException
+    {
+        AtomConverterDispatch dispatch = this.atomConverterDispatch;
+        if (dispatch != null) {
+            return dispatch;
+        }
+
+        int generation = this.converterGeneration;
         Map<String, CQLToSolrAtomConverter> converters;
         try {
             converters = this.componentManager.getInstanceMap(CQLToSolrAtomConverter.class);
         } catch (ComponentLookupException e) {
-            throw new ConversionException(e, atom.getParserState());
+            throw new ConversionException(e, node.getParserState());
+        }
+
+        dispatch = new AtomConverterDispatch(converters);
+
+        // Instantiating the converters may have registered or unregistered other converters, in which case the
+        // dispatch table is already stale: it is used for this conversion only.
+        if (generation == this.converterGeneration) {
+            this.atomConverterDispatch = dispatch;
+        }
+
+        return dispatch;
+    }
+
+    private synchronized void invalidateConverters()
+    {
+        this.converterGeneration++;
+        this.atomConverterDispatch = null;
+        this.sortConverterChain = null;
+    }
+
+    /**
+     * @param solrLength the length of the Solr statement being built
+     * @param maxLength the maximum length of the Solr statement, or {@link AQLParserOptions#UNLIMITED}
+     * @param node the node being converted
+     * @throws ConversionException if the Solr statement is too long
+     */
+    static void checkSolrLength(int solrLength, int maxLength, AbstractAQLNode node) throws ConversionException
+    {
+        if (maxLength != AQLParserOptions.UNLIMITED && solrLength > maxLength) {
+            throw new ConversionException(
+                String.format("The Solr query is too long, the maximum length is [%d] characters", maxLength),
+                node.getParserState());
+        }
+    }
+
+    /**
+     * The specialized atom converters, by field. A converter named after the field and handling it takes precedence,
+     * otherwise the first converter handling the field, in the order of the component map, is used. Fields matched by
+     * the name of a converter or by the String it handles are found with a single lookup. Other fields are matched
+     * against the handled fields of the converters, in order, and the result is remembered.
+     */
+    private final class AtomConverterDispatch
+    {
+        private final Map<String, CQLToSolrAtomConverter> converters = new ConcurrentHashMap<>();
+
+        /**
+         * The String or Pattern handled by each converter, in the order of the component map.
+         */
+        private final List<Map.Entry<Object, CQLToSolrAtomConverter>> handledFields = new ArrayList<>();
+
+        private final AtomicInteger matchedFields = new AtomicInteger();
+
+        AtomConverterDispatch(Map<String, CQLToSolrAtomConverter> components)
+        {
+            List<String> handledStrings = new ArrayList<>();
+            for (Map.Entry<String, CQLToSolrAtomConverter> component : components.entrySet()) {
+                String hint = component.getKey();
+                CQLToSolrAtomConverter converter = component.getValue();
+                Object handled = converter.getHandledFields();
+                if (handled == null || hint.equals(handled)) {
+                    // A converter handling the field it is named after takes precedence
+                    this.converters.put(hint, converter);
+                }
+                if (handled instanceof String) {
+                    this.handledFields.add(Map.entry(handled, converter));
+                    handledStrings.add((String) handled);
+                } else if (handled instanceof Pattern) {
+                    this.handledFields.add(Map.entry(handled, converter));
+                } else if (handled != null) {
+                    logger.error("Component [{}] returned an unsupported handled field type [{}], it will be ignored",
+                        converter.getClass(), handled.getClass());
+                }
+            }
+
+            // A Pattern handled by a converter coming before in the component map can take precedence
+            for (String handledString : handledStrings) {
+                this.converters.computeIfAbsent(handledString, this::match);
+            }
+        }
+
+        CQLToSolrAtomConverter get(String lowerField)
+        {
+            CQLToSolrAtomConverter converter = this.converters.get(lowerField);
+            if (converter == null) {
+                converter = match(lowerField);
+                if (this.matchedFields.get() < MAX_MATCHED_FIELDS
+                    && this.converters.putIfAbsent(lowerField, converter) == null)
+                {
+                    this.matchedFields.incrementAndGet();
+                }
+            }
+
+            return converter == NO_CONVERTER ? null : converter;
         }
 
-        CQLToSolrAtomConverter happyPathCandidateConverter = converters.get(lowerField);
-        if (happyPathCandidateConverter != null) {
-            Object handledFields = happyPathCandidateConverter.getHandledFields();
-            if (handledFields == null || lowerField.equals(handledFields)) {
-                return happyPathCandidateConverter;
+        private CQLToSolrAtomConverter match(String lowerField)
+        {
+            for (Map.Entry<Object, CQLToSolrAtomConverter> handled : this.handledFields) {
+                Object fields = handled.getKey();
+                if (fields instanceof String
+                    ? lowerField.equals(fields)
+                    : ((Pattern) fields).matcher(lowerField).matches())
+                {
+                    return handled.getValue();
+                }
             }
+
+            return NO_CONVERTER;
         }
+    }
+
+    /**
+     * The sort field converters, tried in order until one of them handles the field. The sort parameters of the
+     * fields handled by context independent converters are remembered.
+     */
+    private static final class SortConverterChain
+    {
+        private final List<CQLToSolrSortFieldConverter> converters;
+
+        private final Map<String, String> ascendingParameters = new ConcurrentHashMap<>();
+
+        private final Map<String, String> descendingParameters = new ConcurrentHashMap<>();
 
-        for (CQLToSolrAtomConverter candidate : converters.values()) {
-            if (isFieldManagedByConverter(candidate, lowerField)) {
-                return candidate;
+        SortConverterChain(List<CQLToSolrSortFieldConverter> converters)
+        {
+            this.converters = converters;
+        }
+
+        /**
+         * @return the Solr sort parameter of the given field, or null if no converter handles it
+         */
+        String getSolrSortParameter(AQLStatement cql, AQLOrderByClause orderByParameter, String cqlField)
+            throws ConversionException
+        {
+            Map<String, String> parameters =
+                orderByParameter.isDesc() ? this.descendingParameters : this.ascendingParameters;
+            String solrSortParameter = parameters.get(cqlField);
+            if (solrSortParameter != null) {
+                return solrSortParameter;
             }
+
+            // The result can be remembered if it doesn't depend on the context for any converter asked
+            boolean contextIndependent = true;
+            for (CQLToSolrSortFieldConverter converter : this.converters) {
+                contextIndependent &= converter.isContextIndependent();
+                solrSortParameter = converter.getSolrSortParameter(cql, orderByParameter, cqlField);
+                if (solrSortParameter != null && !solrSortParameter.isEmpty()) {
+                    if (contextIndependent && parameters.size() < MAX_MATCHED_FIELDS) {
+                        parameters.putIfAbsent(cqlField, solrSortParameter);
+                    }
+                    return solrSortParameter;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Invalidates the specialized converters when an atom converter or a sort field converter is registered or
+     * unregistered.
+     */
+    private final class ConverterListener implements EventListener
+    {
+        private final List<Event> events = Arrays.asList(
+            new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class),
+            new ComponentDescriptorRemovedEvent(CQLToSolrAtomConverter.class),
+            new ComponentDescriptorAddedEvent(CQLToSolrSortFieldConverter.class),
+            new ComponentDescriptorRemovedEvent(CQLToSolrSortFieldConverter.class));
+
+        @Override
+        public String getName()
+        {
+            return CQLToSolrQueryConverter.class.getName();
         }
 
-        return null;
+        @Override
+        public List<Event> getEvents()
+        {
+            return this.events;
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            invalidateConverters();
+        }
     }
 
-    private boolean isFieldManagedByConverter(CQLToSolrAtomConverter candidate, String lowerField)
+    /**
+     * Converts atomic clauses and groups of clauses to Solr.
+     */
+    private final class ClauseConverter extends AbstractAQLVisitor<String, ConversionBudget, ConversionException>
     {
-        Object handledFields = candidate.getHandledFields();
-        if (handledFields == null) {
-            return false;
+        @Override
+        public String visit(AQLAtomicClause node, ConversionBudget budget) throws ConversionException
+        {
+            String solrClause = convertToSolr(node);
+            if (solrClause != null) {
+                budget.consume(solrClause.length(), node);
+            }
+            return solrClause;
+        }
+
+        @Override
+        public String visit(AQLClausesWithNextOperator node, ConversionBudget budget) throws ConversionException
+        {
+            return convertToSolr(node.getClausesWithNextOp(), budget);
         }
+    }
+
+    /**
+     * Limits the length of the converted Solr statement. The lengths of the converted atomic clauses are summed up
+     * while converting, so the conversion of a statement stops as soon as it is known to be too long.
+     */
+    private static final class ConversionBudget
+    {
+        private final int maxLength;
+
+        private int length;
 
-        if (handledFields instanceof String) {
-            return lowerField.equals(handledFields);
+        ConversionBudget(int maxLength)
+        {
+            this.maxLength = maxLength;
         }
 
-        if (handledFields instanceof Pattern) {
-            return ((Pattern) handledFields).matcher(lowerField).matches();
+        void consume(int clauseLength, AbstractAQLNode node) throws ConversionException
+        {
+            this.length += clauseLength;
+            check(this.length, node);
         }
 
-        logger.error("Component [{}] returned an unsupported handled field type [{}], it will be ignored",
-            candidate.getClass(), handledFields.getClass());
-        return false;
+        void check(int solrLength, AbstractAQLNode node) throws ConversionException
+        {
+            checkSolrLength(solrLength, this.maxLength, node);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Conversion<T>
+    {
+        T convert() throws ConversionException;
+    }
+
+    /**
+     * Tells whether a clause contributes to the relevance of the results, that is, whether it contains an atomic clause
+     * using the contains operator (~).
+     */
+    private static final class RelevanceChecker extends AbstractAQLVisitor<Boolean, Void, RuntimeException>
+    {
+        @Override
+        protected Boolean defaultVisit(AbstractAQLNode node, Void parameter)
+        {
+            return Boolean.FALSE;
+        }
+
+        @Override
+        public Boolean visit(AQLClausesWithNextOperator node, Void parameter)
+        {
+            for (AQLClauseWithNextOperator clauseWithNextOp : node.getClausesWithNextOp()) {
+                if (clauseWithNextOp.getClause().accept(this, null)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        @Override
+        public Boolean visit(AQLAtomicClause node, Void parameter)
+        {
+            return node.getOp().getOperator() == AQLOperator.CONTAINS;
+        }
+    }
+
+    /**
+     * Tells whether a clause may be converted once and for all, that is, whether it contains neither parameters nor
+     * function calls, whose value depends on the context. Such a clause still isn't constant if its conversion reads
+     * the context.
+     */
+    private static final class ConstantChecker extends AbstractAQLVisitor<Boolean, Void, RuntimeException>
+    {
+        @Override
+        protected Boolean defaultVisit(AbstractAQLNode node, Void parameter)
+        {
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public Boolean visit(AQLClausesWithNextOperator node, Void parameter)
+        {
+            for (AQLClauseWithNextOperator clauseWithNextOp : node.getClausesWithNextOp()) {
+                if (!clauseWithNextOp.getClause().accept(this, null)) {
+                    return Boolean.FALSE;
+                }
+            }
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public Boolean visit(AQLAtomicClause node, Void parameter)
+        {
+            return node.getRight() == null ? Boolean.TRUE : node.getRight().accept(this, null);
+        }
+
+        @Override
+        public Boolean visit(AQLInExpression node, Void parameter)
+        {
+            if (node instanceof AQLIntegerInExpression) {
+                // Only integers
+                return Boolean.TRUE;
+            }
+            for (AbstractAQLAtomicValue value : node.getValues()) {
+                if (!value.accept(this, null)) {
+                    return Boolean.FALSE;
+                }
+            }
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public Boolean visit(AQLFunctionCall node, Void parameter)
+        {
+            return Boolean.FALSE;
+        }
+
+        @Override
+        public Boolean visit(AQLParameter node, Void parameter)
+        {
+            return Boolean.FALSE;
+        }
     }
 }
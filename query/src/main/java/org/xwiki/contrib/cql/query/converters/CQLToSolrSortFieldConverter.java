@@ -41,4 +41,15 @@ public interface CQLToSolrSortFieldConverter
      */
     String getSolrSortParameter(AQLStatement cql, AQLOrderByClause orderByParameter, String field)
         throws ConversionException;
+
+    /**
+     * @return whether the sort parameter returned by this converter only depends on the field and on the direction of
+     *     the order by parameter, and not on the rest of the statement or on the context (like the current wiki or
+     *     user). In this case, the sort parameter of a field is computed once and remembered.
+     * @since 0.2.1
+     */
+    default boolean isContextIndependent()
+    {
+        return false;
+    }
 }
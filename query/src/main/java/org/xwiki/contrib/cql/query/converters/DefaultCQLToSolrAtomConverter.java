@@ -34,8 +34,6 @@ import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceKeyResolver;
-import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceResolver;
 import org.xwiki.contrib.confluence.resolvers.ConfluenceResolverException;
 import org.xwiki.contrib.cql.aqlparser.AQLOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
@@ -43,11 +41,15 @@ import org.xwiki.contrib.cql.aqlparser.ast.AQLBooleanLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLNode;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLVisitor;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceResolverCache;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -162,10 +164,14 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
     private EntityReferenceSerializer<String> serializer;
 
     @Inject
-    private ConfluenceSpaceKeyResolver confluenceSpaceKeyResolver;
+    private ConfluenceResolverCache confluenceResolvers;
 
     @Inject
-    private ConfluenceSpaceResolver confluenceSpaceResolver;
+    private CQLConversionContext conversionContext;
+
+    private final RightHandValueConverter rightHandValueConverter = new RightHandValueConverter();
+
+    private final AtomicValueConverter atomicValueConverter = new AtomicValueConverter();
 
     @Override
     public String convertToSolr(AQLAtomicClause atom) throws ConversionException
@@ -187,16 +193,17 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
     protected String getSolrValue(AQLAtomicClause atom) throws ConversionException
     {
         AbstractAQLRightHandValue right = atom.getRight();
-
-        if (right instanceof AbstractAQLAtomicValue) {
-            return convertToSolr(atom, (AbstractAQLAtomicValue) right);
+        if (right == null) {
+            throw unexpectedRightHandValue(atom);
         }
 
-        if (right instanceof AQLInExpression) {
-            return convertToSolr(atom, (AQLInExpression) right);
-        }
+        return right.accept(this.rightHandValueConverter, atom);
+    }
 
-        throw new ConversionException(String.format("BUG: Unexpected right hand value [%s].", right) + UNEXP,
+    private static ConversionException unexpectedRightHandValue(AQLAtomicClause atom)
+    {
+        return new ConversionException(
+            String.format("BUG: Unexpected right hand value [%s].", atom.getRight()) + UNEXP,
             atom.getOp().getParserState());
     }
 
@@ -209,27 +216,7 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
      */
     protected String convertToSolr(AQLAtomicClause atom, AbstractAQLAtomicValue expression) throws ConversionException
     {
-        if (expression instanceof AQLFunctionCall) {
-            return convertToSolr(atom, (AQLFunctionCall) expression);
-        }
-
-        if (expression instanceof AQLDateLiteral) {
-            return convertToSolr(atom, (AQLDateLiteral) expression);
-        }
-
-        if (expression instanceof AQLNumberLiteral) {
-            return convertToSolr(atom, (AQLNumberLiteral) expression);
-        }
-
-        if (expression instanceof AQLStringLiteral) {
-            return convertToSolr(atom, (AQLStringLiteral) expression);
-        }
-
-        if (expression instanceof AQLBooleanLiteral) {
-            return convertToSolr(atom, (AQLBooleanLiteral) expression);
-        }
-
-        throw new ConversionException("BUG: Unsupported construct." + UNEXP, expression.getParserState());
+        return expression.accept(this.atomicValueConverter, atom);
     }
 
     /**
@@ -256,8 +243,9 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
         String v = expression.getString();
         if (atom.getField().equals(SPACE) || atom.getField().equals(SPACE_KEY)) {
             String err = String.format("Failed to find space [%s]", v);
+            this.conversionContext.read(CQLContextInput.WIKI);
             try {
-                EntityReference space = confluenceSpaceKeyResolver.getSpaceByKey(v);
+                EntityReference space = confluenceResolvers.getSpaceByKey(v);
                 if (space == null) {
                     throw new ConversionException(err, expression.getParserState());
                 }
@@ -281,8 +269,9 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
     private EntityReference getCurrentConfluenceSpace(AQLFunctionCall expression) throws ConversionException
     {
         EntityReference res;
+        this.conversionContext.read(CQLContextInput.SPACE);
         try {
-            res = confluenceSpaceResolver.getSpace(contextProvider.get().getDoc().getDocumentReference());
+            res = confluenceResolvers.getSpace(contextProvider.get().getDoc().getDocumentReference());
         } catch (ConfluenceResolverException e) {
             throw new ConversionException(FAILED_TO_EVALUATE_CURRENT_SPACE, e, expression.getParserState());
         }
@@ -328,6 +317,7 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
 
     private String getEscapedCurrentUser()
     {
+        this.conversionContext.read(CQLContextInput.USER);
         String currentUser = serializer.serialize(contextProvider.get().getUserReference());
         return (currentUser.indexOf(':') == -1 ? "*\\:" : "") + escapeSolr(currentUser);
     }
@@ -540,9 +530,10 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
                         List<String> solrTypeAtoms = new ArrayList<>(2);
                         addTypeAtoms(
                             new AQLAtomicClause(
-                                atom.getParserState(),
+                                atom.getOffset(),
+                                atom.getLineTable(),
                                 atom.getField(),
-                                new AQLAtomicClauseOperator(in.getParserState(), AQLOperator.EQ),
+                                new AQLAtomicClauseOperator(in.getOffset(), in.getLineTable(), AQLOperator.EQ),
                                 value
                             ),
                             convertToSolr(atom, value),
@@ -682,4 +673,79 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
         }
         return "" + n;
     }
+
+    /**
+     * Converts the right hand value of an atom to Solr, calling the overridable conversion methods.
+     */
+    private final class RightHandValueConverter extends AbstractAQLVisitor<String, AQLAtomicClause, ConversionException>
+    {
+        @Override
+        protected String defaultVisit(AbstractAQLNode node, AQLAtomicClause atom) throws ConversionException
+        {
+            throw unexpectedRightHandValue(atom);
+        }
+
+        @Override
+        protected String visitAtomicValue(AbstractAQLAtomicValue node, AQLAtomicClause atom)
+            throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLInExpression node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+    }
+
+    /**
+     * Converts an atomic value of an atom to Solr, calling the overridable conversion method matching its type.
+     */
+    private final class AtomicValueConverter extends AbstractAQLVisitor<String, AQLAtomicClause, ConversionException>
+    {
+        @Override
+        protected String defaultVisit(AbstractAQLNode node, AQLAtomicClause atom) throws ConversionException
+        {
+            throw new ConversionException("BUG: Unsupported construct." + UNEXP, node.getParserState());
+        }
+
+        @Override
+        public String visit(AQLFunctionCall node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLDateLiteral node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLNumberLiteral node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLStringLiteral node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLBooleanLiteral node, AQLAtomicClause atom) throws ConversionException
+        {
+            return convertToSolr(atom, node);
+        }
+
+        @Override
+        public String visit(AQLParameter node, AQLAtomicClause atom) throws ConversionException
+        {
+            // Parameters are replaced by their values before conversion, see CQLSolrStatementTemplate
+            throw new ConversionException("Parameters must be bound to values before converting the statement",
+                node.getParserState());
+        }
+    }
 }
@@ -82,4 +82,11 @@ public class DefaultCQLToSolrSortParameterConverter implements CQLToSolrSortFiel
 
         return solrField + (orderByParameter.isDesc() ? " desc" : " asc");
     }
+
+    @Override
+    public boolean isContextIndependent()
+    {
+        // Subclasses overriding getSolrSortField may depend on the context
+        return getClass() == DefaultCQLToSolrSortParameterConverter.class;
+    }
 }
@@ -19,15 +19,25 @@
  */
 package org.xwiki.contrib.cql.query.converters.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Provider;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.contrib.confluence.resolvers.ConfluencePageIdResolver;
 import org.xwiki.contrib.confluence.resolvers.ConfluenceResolverException;
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.query.converters.CQLContextInput;
+import org.xwiki.contrib.cql.query.converters.CQLConversionContext;
 import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
 import org.xwiki.model.reference.EntityReference;
@@ -35,6 +45,7 @@ import org.xwiki.stability.Unstable;
 
 import com.xpn.xwiki.XWikiContext;
 
+import static org.xwiki.contrib.cql.query.converters.Utils.betweenParentheses;
 import static org.xwiki.contrib.cql.query.converters.Utils.escapeSolr;
 
 /**
@@ -46,34 +57,93 @@ import static org.xwiki.contrib.cql.query.converters.Utils.escapeSolr;
 @Component(staticRegistration = false)
 public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrAtomConverter
 {
+    private static final String SPACED_OR = " OR ";
+
     @Inject
-    private ConfluencePageIdResolver idResolver;
+    private ConfluencePageIdBatchResolver idResolver;
 
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    @Inject
+    private CQLConversionContext conversionContext;
+
     @Override
     protected String convertToSolr(AQLAtomicClause atom, AbstractAQLAtomicValue right) throws ConversionException
     {
-        switch (atom.getOp().getOperator()) {
-            case IN:
-            case EQ:
-            case NEQ:
-            case NOT_IN:
-            case CONTAINS:
-            case DOES_NOT_CONTAIN:
-                // ok
-                break;
-            default:
-                throw new ConversionException("Unsupported operator for id, parent or ancestor field",
-                    atom.getOp().getParserState());
-        }
+        checkOperator(atom);
         EntityReference docRef = tryCurrentContentFunction(right);
 
         if (docRef == null) {
             docRef = getIdFromValue(atom, right);
         }
 
+        return convertToSolr(atom, docRef);
+    }
+
+    @Override
+    protected String convertToSolr(AQLAtomicClause atom, AQLInExpression expression) throws ConversionException
+    {
+        if (!(expression instanceof AQLIntegerInExpression)) {
+            return super.convertToSolr(atom, expression);
+        }
+
+        // The ids are resolved directly, without going through a node and a string for each of them
+        checkOperator(atom);
+        AQLIntegerInExpression ids = (AQLIntegerInExpression) expression;
+        List<String> convertedValues = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            AQLParserState valueState = ids.getLineTable().getState(ids.getValueOffset(i));
+            convertedValues.add(convertToSolr(atom, getDocumentById(ids.getLong(i), valueState)));
+        }
+        return betweenParentheses(String.join(SPACED_OR, convertedValues));
+    }
+
+    /**
+     * Add the Confluence ids given as literal values in the atom to the given collection, so that they can be resolved
+     * together before the statement is converted.
+     * @param atom the atom handled by this converter
+     * @param ids the collection to which the ids are added
+     * @since 0.2.1
+     */
+    public void collectIds(AQLAtomicClause atom, Collection<Long> ids)
+    {
+        AbstractAQLRightHandValue right = atom.getRight();
+        if (right instanceof AQLIntegerInExpression) {
+            AQLIntegerInExpression values = (AQLIntegerInExpression) right;
+            for (int i = 0; i < values.size(); i++) {
+                ids.add(values.getLong(i));
+            }
+        } else if (right instanceof AQLInExpression) {
+            for (AbstractAQLAtomicValue value : ((AQLInExpression) right).getValues()) {
+                collectId(value, ids);
+            }
+        } else {
+            collectId(right, ids);
+        }
+    }
+
+    private static void collectId(AbstractAQLRightHandValue value, Collection<Long> ids)
+    {
+        if (value instanceof AQLNumberLiteral) {
+            try {
+                ids.add(Long.parseLong(((AQLNumberLiteral) value).getNumber()));
+            } catch (NumberFormatException e) {
+                // Not an id, the error is reported when the value is converted
+            }
+        }
+    }
+
+    /**
+     * Convert the document designated by a value of a CQL atom to a Solr expression.
+     * @return the result of the conversion to Solr as string, or null if the document can't be matched
+     * @param atom the atom being converted
+     * @param docRef the document designated by the value
+     * @throws ConversionException if this document can't be converted
+     * @since 0.2.1
+     */
+    protected String convertToSolr(AQLAtomicClause atom, EntityReference docRef) throws ConversionException
+    {
         if (docRef == null) {
             return null;
         }
@@ -86,6 +156,23 @@ public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrA
         return escapeSolr(v);
     }
 
+    private static void checkOperator(AQLAtomicClause atom) throws ConversionException
+    {
+        switch (atom.getOp().getOperator()) {
+            case IN:
+            case EQ:
+            case NEQ:
+            case NOT_IN:
+            case CONTAINS:
+            case DOES_NOT_CONTAIN:
+                // ok
+                break;
+            default:
+                throw new ConversionException("Unsupported operator for id, parent or ancestor field",
+                    atom.getOp().getParserState());
+        }
+    }
+
     private EntityReference getIdFromValue(AQLAtomicClause atom, AbstractAQLAtomicValue right)
         throws ConversionException
     {
@@ -98,16 +185,22 @@ public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrA
             throw new ConversionException("Expected a Confluence content id (a number)", right.getParserState());
         }
 
+        return getDocumentById(id, right.getParserState());
+    }
+
+    private EntityReference getDocumentById(long id, AQLParserState valueState) throws ConversionException
+    {
         String err = String.format("Could not find the document matching Confluence id [%d]", id);
+        this.conversionContext.read(CQLContextInput.WIKI);
         try {
-            EntityReference docRef = idResolver.getDocumentById(id);
+            EntityReference docRef = this.idResolver.getDocumentById(id);
             if (docRef != null) {
                 return docRef;
             }
         } catch (ConfluenceResolverException e) {
-            throw new ConversionException(err, e, atom.getRight() == null ? null : atom.getRight().getParserState());
+            throw new ConversionException(err, e, valueState);
         }
-        throw new ConversionException(err, atom.getRight().getParserState());
+        throw new ConversionException(err, valueState);
     }
 
     private EntityReference tryCurrentContentFunction(AbstractAQLAtomicValue right) throws ConversionException
@@ -119,6 +212,7 @@ public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrA
                     throw new ConversionException("Function [currentContent] does not take any argument",
                         right.getParserState());
                 }
+                this.conversionContext.read(CQLContextInput.DOCUMENT);
                 return contextProvider.get().getDoc().getDocumentReference();
             }
         }
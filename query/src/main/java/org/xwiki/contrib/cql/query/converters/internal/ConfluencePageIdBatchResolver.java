@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceResolverException;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Resolves the Confluence page ids referenced by a CQL statement in one pass before converting it, so that each id is
+ * resolved once even when the statement refers to it many times. The documents resolved for the conversion in
+ * progress are kept for the current thread.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Component(roles = ConfluencePageIdBatchResolver.class)
+@Singleton
+public class ConfluencePageIdBatchResolver
+{
+    @Inject
+    private ConfluenceResolverCache idResolver;
+
+    @Inject
+    private Logger logger;
+
+    private final ThreadLocal<Map<Long, EntityReference>> batch = new ThreadLocal<>();
+
+    /**
+     * Resolve the given ids, and use the result for the following calls to {@link #getDocumentById(long)} in the
+     * current thread until {@link #endBatch(Map)} is called. Ids which fail to resolve are left out: they are resolved
+     * again when they are converted, so that the error is reported at the position of the value.
+     *
+     * @param ids the ids to resolve, which may contain duplicates
+     * @return the documents of the enclosing batch, to give to {@link #endBatch(Map)}
+     */
+    public Map<Long, EntityReference> startBatch(Collection<Long> ids)
+    {
+        Map<Long, EntityReference> previous = this.batch.get();
+        Collection<Long> distinctIds = new LinkedHashSet<>(ids);
+        Map<Long, EntityReference> documents = new HashMap<>();
+        for (Long id : distinctIds) {
+            if (previous != null && previous.containsKey(id)) {
+                documents.put(id, previous.get(id));
+            } else {
+                try {
+                    documents.put(id, this.idResolver.getDocumentById(id));
+                } catch (ConfluenceResolverException e) {
+                    this.logger.debug("Failed to resolve the Confluence page id [{}] in a batch", id, e);
+                }
+            }
+        }
+
+        this.batch.set(documents);
+        return previous;
+    }
+
+    /**
+     * Stop using the documents resolved by the last call to {@link #startBatch(Collection)} in the current thread.
+     *
+     * @param previous the value returned by {@link #startBatch(Collection)}
+     */
+    public void endBatch(Map<Long, EntityReference> previous)
+    {
+        if (previous == null) {
+            this.batch.remove();
+        } else {
+            this.batch.set(previous);
+        }
+    }
+
+    /**
+     * @param id the Confluence page id
+     * @return the document corresponding to the given id, from the current batch if it was resolved in it, or null if
+     *     it is not found
+     * @throws ConfluenceResolverException if the id can't be resolved
+     */
+    public EntityReference getDocumentById(long id) throws ConfluenceResolverException
+    {
+        Map<Long, EntityReference> documents = this.batch.get();
+        if (documents != null && documents.containsKey(id)) {
+            return documents.get(id);
+        }
+
+        return this.idResolver.getDocumentById(id);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.confluence.resolvers.ConfluencePageIdResolver;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceResolverException;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceKeyResolver;
+import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.CQLConfiguration;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Caches the results of the Confluence resolvers used by the CQL converters, including the keys and ids which are
+ * not found. The page ids and space keys are resolved in the current wiki, so they are cached for each wiki. These
+ * mappings are set when Confluence content is migrated and seldom change afterwards. Creating or deleting a document
+ * may add or remove a mapping, and so may updating the Confluence page object of a document: the whole cache is
+ * cleared in these cases, because a cached result can't be traced back to the documents it was resolved from. Other
+ * updates are much more frequent and keep the cache. Renaming a document creates the new document and deletes the old
+ * one, so it clears the cache too.
+ *
+ * @version $Id$
+ * @since 0.2.1
+ */
+@Component(roles = ConfluenceResolverCache.class)
+@Singleton
+public class ConfluenceResolverCache implements Initializable, Disposable
+{
+    private static final LocalDocumentReference CONFLUENCE_PAGE_CLASS =
+        new LocalDocumentReference(Arrays.asList("Confluence", "Code"), "ConfluencePageClass");
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    @Inject
+    private ConfluencePageIdResolver pageIdResolver;
+
+    @Inject
+    private ConfluenceSpaceKeyResolver spaceKeyResolver;
+
+    @Inject
+    private ConfluenceSpaceResolver spaceResolver;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    private final InvalidationListener invalidationListener = new InvalidationListener();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The results, or null when the cache is disabled. Null results are stored too.
+     */
+    private Map<Object, EntityReference> results;
+
+    /**
+     * Incremented each time the cache is cleared, so that a result obtained before is not stored after.
+     */
+    private long generation;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int maxEntries = this.configuration.getResolverCacheMaxEntries();
+        if (maxEntries > 0) {
+            this.results = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, EntityReference> eldest)
+                {
+                    return size() > maxEntries;
+                }
+            };
+            this.observationManager.addListener(this.invalidationListener);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.results != null) {
+            this.observationManager.removeListener(this.invalidationListener.getName());
+        }
+    }
+
+    /**
+     * @param id the Confluence page id
+     * @return the document corresponding to the given id, or null if it is not found
+     * @throws ConfluenceResolverException if the id can't be resolved
+     */
+    public EntityReference getDocumentById(long id) throws ConfluenceResolverException
+    {
+        return get(Arrays.asList(getWikiId(), id), () -> this.pageIdResolver.getDocumentById(id));
+    }
+
+    /**
+     * @param key the Confluence space key
+     * @return the space corresponding to the given key, or null if it is not found
+     * @throws ConfluenceResolverException if the key can't be resolved
+     */
+    public EntityReference getSpaceByKey(String key) throws ConfluenceResolverException
+    {
+        return get(Arrays.asList(getWikiId(), key), () -> this.spaceKeyResolver.getSpaceByKey(key));
+    }
+
+    /**
+     * @param reference the reference of an entity
+     * @return the Confluence space containing the given entity, or null if it is not in a Confluence space
+     * @throws ConfluenceResolverException if the space can't be resolved
+     */
+    public EntityReference getSpace(EntityReference reference) throws ConfluenceResolverException
+    {
+        return get(reference, () -> this.spaceResolver.getSpace(reference));
+    }
+
+    /**
+     * Forget all the cached results.
+     */
+    public void invalidate()
+    {
+        if (this.results != null) {
+            synchronized (this.results) {
+                this.results.clear();
+                this.generation++;
+            }
+        }
+    }
+
+    /**
+     * @param event an event sent when a document is created, updated or deleted
+     * @param source the source of the event
+     * @return whether the event may change the results of the Confluence resolvers, that is, unless it is the update
+     *     of a document which keeps its Confluence page object unchanged
+     */
+    public static boolean isConfluenceDataChange(Event event, Object source)
+    {
+        if (event instanceof DocumentUpdatedEvent && source instanceof XWikiDocument) {
+            XWikiDocument document = (XWikiDocument) source;
+            XWikiDocument originalDocument = document.getOriginalDocument();
+            return originalDocument == null || !document.getXObjects(CONFLUENCE_PAGE_CLASS)
+                .equals(originalDocument.getXObjects(CONFLUENCE_PAGE_CLASS));
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of results which were found in the cache
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of results which were not found in the cache and had to be resolved
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the proportion of the results found in the cache, between 0 and 1, or 0 if nothing was asked yet
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private String getWikiId()
+    {
+        return this.contextProvider.get().getWikiId();
+    }
+
+    private EntityReference get(Object key, Resolution resolution) throws ConfluenceResolverException
+    {
+        if (this.results == null) {
+            return resolution.resolve();
+        }
+
+        long resolutionGeneration;
+        synchronized (this.results) {
+            if (this.results.containsKey(key)) {
+                this.hits.incrementAndGet();
+                return this.results.get(key);
+            }
+            resolutionGeneration = this.generation;
+        }
+
+        // Resolved without holding the lock, failures are not cached
+        this.misses.incrementAndGet();
+        EntityReference result = resolution.resolve();
+        synchronized (this.results) {
+            if (resolutionGeneration == this.generation) {
+                this.results.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Resolution
+    {
+        EntityReference resolve() throws ConfluenceResolverException;
+    }
+
+    private final class InvalidationListener implements EventListener
+    {
+        private final List<Event> events = Arrays.asList(new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
+        @Override
+        public String getName()
+        {
+            return ConfluenceResolverCache.class.getName();
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return this.events;
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (isConfluenceDataChange(event, source)) {
+                invalidate();
+            }
+        }
+    }
+}
@@ -25,8 +25,8 @@ import javax.inject.Named;
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
-import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
 import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -43,9 +43,9 @@ public class ParentCQLToSolrAtomConverter extends AncestorCQLToSolrAtomConverter
     private static final String THIS_IS_A_BUG = "This is a bug in the CQL module, please report.";
 
     @Override
-    protected String convertToSolr(AQLAtomicClause atom, AbstractAQLAtomicValue right) throws ConversionException
+    protected String convertToSolr(AQLAtomicClause atom, EntityReference docRef) throws ConversionException
     {
-        String s = super.convertToSolr(atom, right);
+        String s = super.convertToSolr(atom, docRef);
         if (StringUtils.isEmpty(s)) {
             throw new ConversionException("Didn't expect to have an empty ancestor Solr conversion. " + THIS_IS_A_BUG,
                 atom.getParserState());
@@ -20,8 +20,14 @@
 package org.xwiki.contrib.cql.query.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,11 +36,35 @@ import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
 import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+import org.xwiki.contrib.cql.aqlparser.AQLPreparedStatement;
+import org.xwiki.contrib.cql.aqlparser.AQLStatementCache;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.query.CQLConfiguration;
+import org.xwiki.contrib.cql.query.converters.CQLContextInput;
+import org.xwiki.contrib.cql.query.converters.CQLConversionContext;
+import org.xwiki.contrib.cql.query.converters.CQLSolrQuery;
+import org.xwiki.contrib.cql.query.converters.CQLSolrStatementTemplate;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrSortFieldConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceResolverCache;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
@@ -55,7 +85,7 @@ import com.xpn.xwiki.XWikiContext;
 @Named(CQLQueryExecutor.CQL)
 @Singleton
 @Unstable
-public class CQLQueryExecutor implements QueryExecutor
+public class CQLQueryExecutor implements QueryExecutor, Initializable, Disposable
 {
     /**
      * Query language ID.
@@ -64,6 +94,18 @@ public class CQLQueryExecutor implements QueryExecutor
 
     private static final String SORT = "sort";
 
+    private static final String FILTER_QUERY = "fq";
+
+    /**
+     * The filter query the Solr query executor uses when the query doesn't give any, which binding filter queries
+     * replaces.
+     */
+    private static final String DEFAULT_FILTER_QUERY = "type:DOCUMENT";
+
+    private static final int LRU_MAP_INITIAL_CAPACITY = 16;
+
+    private static final float LRU_MAP_LOAD_FACTOR = 0.75F;
+
     @Inject
     private Provider<XWikiContext> contextProvider;
 
@@ -73,53 +115,396 @@ public class CQLQueryExecutor implements QueryExecutor
     @Inject
     private CQLToSolrQueryConverter queryConverter;
 
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private CQLConversionContext conversionContext;
+
+    @Inject
+    private ObservationManager observationManager;
+
     @Inject
     private Logger logger;
 
+    private final CacheListener cacheListener = new CacheListener();
+
+    private AQLStatementCache statementCache;
+
+    private boolean normalize;
+
+    private AQLParserOptions parserOptions;
+
+    private int solrStatementMaxLength;
+
+    private boolean filterQueries;
+
+    /**
+     * The Solr templates of the parsed statements containing parameters, least recently used first.
+     */
+    private Map<AQLStatement, CQLSolrStatementTemplate> templateCache;
+
+    /**
+     * The inputs from the context that the conversion of the statements read, least recently used first.
+     */
+    private Map<AQLStatement, Set<CQLContextInput>> conversionInputs;
+
+    /**
+     * The converted statements, by statement and values of the inputs read by its conversion, least recently used
+     * first.
+     */
+    private Map<List<Object>, SolrConversion> conversionCache;
+
+    /**
+     * Incremented each time the conversion cache is cleared, so that a conversion computed before is not stored after.
+     */
+    private long conversionGeneration;
+
+    @Override
+    public void initialize()
+    {
+        this.normalize = this.configuration.isNormalizationEnabled();
+        this.parserOptions = new AQLParserOptions()
+            .setMaxLength(limit(this.configuration.getParserMaxLength()))
+            .setMaxDepth(limit(this.configuration.getParserMaxDepth()))
+            .setMaxClauses(limit(this.configuration.getParserMaxClauses()))
+            .setMaxInValues(limit(this.configuration.getParserMaxInValues()))
+            .setMaxFunctionArguments(limit(this.configuration.getParserMaxFunctionArguments()));
+        this.solrStatementMaxLength = limit(this.configuration.getSolrStatementMaxLength());
+        this.filterQueries = this.configuration.isSolrFilterQueriesEnabled();
+        int maxEntries = this.configuration.getParserCacheMaxEntries();
+        if (maxEntries > 0) {
+            this.statementCache = new AQLStatementCache(maxEntries, this.configuration.getParserCacheMaxWeight());
+            this.templateCache = lruMap(maxEntries);
+        }
+        int solrCacheMaxEntries = this.configuration.getSolrCacheMaxEntries();
+        if (solrCacheMaxEntries > 0) {
+            this.conversionInputs = lruMap(solrCacheMaxEntries);
+            this.conversionCache = lruMap(solrCacheMaxEntries);
+        }
+        if (this.templateCache != null || this.conversionCache != null) {
+            this.observationManager.addListener(this.cacheListener);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.templateCache != null || this.conversionCache != null) {
+            this.observationManager.removeListener(this.cacheListener.getName());
+        }
+    }
+
+    private void invalidateConversions()
+    {
+        if (this.templateCache != null) {
+            synchronized (this.templateCache) {
+                this.templateCache.clear();
+            }
+        }
+        if (this.conversionCache != null) {
+            synchronized (this.conversionCache) {
+                this.conversionInputs.clear();
+                this.conversionCache.clear();
+                this.conversionGeneration++;
+            }
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxEntries)
+    {
+        return new LinkedHashMap<>(LRU_MAP_INITIAL_CAPACITY, LRU_MAP_LOAD_FACTOR, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static int limit(int configuredLimit)
+    {
+        return configuredLimit > 0 ? configuredLimit : AQLParserOptions.UNLIMITED;
+    }
+
     @Override
     public <T> List<T> execute(Query query) throws QueryException
     {
         String solrStatement;
+        List<String> solrFilterQueries = Collections.emptyList();
         String solrSortParameter;
+        Set<String> cqlParameterNames = Collections.emptySet();
         String cql = query.getStatement();
         try {
-            AQLStatement cqlAst = AQLParser.parse(cql);
-            solrStatement = queryConverter.getSolrStatement(cqlAst);
-            solrSortParameter = queryConverter.getSolrSortParameter(cqlAst);
+            List<Object> positionalValues = getPositionalValues(query);
+            AQLStatement cqlAst = parse(cql, !positionalValues.isEmpty() || !query.getNamedParameters().isEmpty());
+            if (AQLPreparedStatement.hasParameters(cqlAst)) {
+                CQLSolrStatementTemplate template = getTemplate(cqlAst);
+                CQLSolrQuery solrQuery = template.getSolrQuery(positionalValues, query.getNamedParameters(),
+                    this.solrStatementMaxLength);
+                solrStatement = solrQuery.getStatement();
+                solrFilterQueries = solrQuery.getFilterQueries();
+                solrSortParameter = template.getSolrSortParameter();
+                cqlParameterNames = template.getPreparedStatement().getParameterNames();
+            } else {
+                SolrConversion conversion = convert(cqlAst);
+                solrStatement = conversion.statement;
+                solrFilterQueries = conversion.filterQueries;
+                solrSortParameter = conversion.sortParameter;
+            }
         } catch (ParserException | IOException e) {
             throw new QueryException("Failed to parse the CQL statement", query, e);
         }
 
-        this.logger.debug("CQL Statement [{}] converted to Solr query [{}], sort parameter [{}] for execution",
-            cql, solrStatement, solrSortParameter);
+        this.logger.debug("CQL Statement [{}] converted to Solr query [{}], filter queries {}, sort parameter [{}]"
+            + " for execution", cql, solrStatement, solrFilterQueries, solrSortParameter);
+
+        return new CQLToSolrWrappingQuery(query, solrStatement, solrFilterQueries, solrSortParameter,
+            cqlParameterNames).execute();
+    }
+
+    /**
+     * @param allowParameters whether the statement may contain parameters, which is only the case when the query has
+     *     bound values. Otherwise, parameters are reported as syntax errors.
+     */
+    private AQLStatement parse(String cql, boolean allowParameters) throws ParserException, IOException
+    {
+        AQLStatement statement = this.statementCache == null ? null : this.statementCache.get(cql);
+        if (statement != null && !allowParameters && AQLPreparedStatement.hasParameters(statement)) {
+            // Parsed again to report the error
+            statement = null;
+        }
+        if (statement == null) {
+            statement = allowParameters
+                ? AQLParser.prepare(cql, this.parserOptions).getStatement()
+                : AQLParser.parse(cql, this.parserOptions);
+            if (this.normalize) {
+                // The normalized statement is cached so it is only normalized once
+                statement = this.queryConverter.normalize(statement);
+            }
+            if (this.statementCache != null) {
+                this.statementCache.put(cql, statement);
+            }
+        }
+        return statement;
+    }
+
+    private CQLSolrStatementTemplate getTemplate(AQLStatement statement) throws ConversionException
+    {
+        if (this.templateCache == null) {
+            return buildTemplate(statement);
+        }
+
+        synchronized (this.templateCache) {
+            CQLSolrStatementTemplate template = this.templateCache.get(statement);
+            if (template == null) {
+                template = buildTemplate(statement);
+                this.templateCache.put(statement, template);
+            }
+            return template;
+        }
+    }
+
+    private CQLSolrStatementTemplate buildTemplate(AQLStatement statement) throws ConversionException
+    {
+        AQLPreparedStatement prepared = new AQLPreparedStatement(statement);
+        return this.filterQueries
+            ? this.queryConverter.getSolrQueryTemplate(prepared)
+            : this.queryConverter.getSolrStatementTemplate(prepared);
+    }
+
+    private SolrConversion convert(AQLStatement statement) throws ConversionException
+    {
+        if (this.conversionCache == null) {
+            return convertUncached(statement);
+        }
+
+        Set<CQLContextInput> inputs;
+        long generation;
+        synchronized (this.conversionCache) {
+            inputs = this.conversionInputs.get(statement);
+            generation = this.conversionGeneration;
+        }
+
+        XWikiContext context = this.contextProvider.get();
+        if (inputs != null) {
+            List<Object> key = getConversionKey(statement, inputs, context);
+            synchronized (this.conversionCache) {
+                SolrConversion conversion = this.conversionCache.get(key);
+                if (conversion != null) {
+                    return conversion;
+                }
+            }
+        }
+
+        SolrConversion conversion;
+        Set<CQLContextInput> readInputs;
+        this.conversionContext.startTracking();
+        try {
+            conversion = convertUncached(statement);
+        } finally {
+            readInputs = this.conversionContext.stopTracking();
+        }
+
+        if (!readInputs.contains(CQLContextInput.CLOCK)) {
+            if (inputs != null) {
+                // The conversion may read other inputs in other contexts, the cache is partitioned by all of them
+                readInputs.addAll(inputs);
+            }
+            List<Object> key = getConversionKey(statement, readInputs, context);
+            synchronized (this.conversionCache) {
+                if (generation == this.conversionGeneration) {
+                    this.conversionInputs.put(statement, readInputs);
+                    this.conversionCache.put(key, conversion);
+                }
+            }
+        }
+
+        return conversion;
+    }
+
+    private SolrConversion convertUncached(AQLStatement statement) throws ConversionException
+    {
+        String sortParameter = this.queryConverter.getSolrSortParameter(statement);
+        if (this.filterQueries) {
+            CQLSolrQuery solrQuery = this.queryConverter.getSolrQuery(statement, this.solrStatementMaxLength);
+            return new SolrConversion(solrQuery.getStatement(), solrQuery.getFilterQueries(), sortParameter);
+        }
+
+        return new SolrConversion(this.queryConverter.getSolrStatement(statement, this.solrStatementMaxLength),
+            Collections.emptyList(), sortParameter);
+    }
+
+    /**
+     * @return the statement followed by the values of the given inputs in the given context
+     */
+    private static List<Object> getConversionKey(AQLStatement statement, Set<CQLContextInput> inputs,
+        XWikiContext context)
+    {
+        List<Object> key = new ArrayList<>(1 + inputs.size());
+        key.add(statement);
+        for (CQLContextInput input : inputs) {
+            key.add(getInputValue(input, context));
+        }
+        return key;
+    }
+
+    private static Object getInputValue(CQLContextInput input, XWikiContext context)
+    {
+        switch (input) {
+            case USER:
+                return context.getUserReference();
+            case DOCUMENT:
+                return context.getDoc() == null ? null : context.getDoc().getDocumentReference();
+            case SPACE:
+                return context.getDoc() == null ? null : context.getDoc().getDocumentReference().getParent();
+            case WIKI:
+                return context.getWikiId();
+            default:
+                throw new IllegalArgumentException("Unexpected context input [" + input + "]");
+        }
+    }
+
+    /**
+     * @return the values bound to the positional parameters of the query, ordered by index
+     */
+    private static List<Object> getPositionalValues(Query query)
+    {
+        Map<Integer, Object> positionalParameters = query.getPositionalParameters();
+        if (positionalParameters == null || positionalParameters.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Query.bindValues(List) starts at index 1 for most languages, only the order of the indexes matters here
+        return new ArrayList<>(new TreeMap<>(positionalParameters).values());
+    }
+
+    /**
+     * A statement converted to Solr.
+     */
+    private static final class SolrConversion
+    {
+        private final String statement;
+
+        private final List<String> filterQueries;
 
-        return wrapAsSolrQuery(query, solrStatement, solrSortParameter).execute();
+        private final String sortParameter;
+
+        SolrConversion(String statement, List<String> filterQueries, String sortParameter)
+        {
+            this.statement = statement;
+            this.filterQueries = filterQueries;
+            this.sortParameter = sortParameter;
+        }
     }
 
-    private Query wrapAsSolrQuery(Query query, String solrStatement, String solrSortParameter)
+    /**
+     * Clears the cached conversions and templates when what they were computed from may have changed: the documents
+     * the Confluence ids and space keys are resolved to, or the converters.
+     */
+    private final class CacheListener implements EventListener
     {
-        Query q = new CQLToSolrWrappingQuery(query, solrStatement);
-        Object existingSortParameter = q.getNamedParameters().get(SORT);
-        boolean sortParameterUnset = existingSortParameter == null || (existingSortParameter instanceof String
-            && ((String) existingSortParameter).isEmpty());
+        private final List<Event> events = Arrays.asList(
+            new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(),
+            new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class),
+            new ComponentDescriptorRemovedEvent(CQLToSolrAtomConverter.class),
+            new ComponentDescriptorAddedEvent(CQLToSolrSortFieldConverter.class),
+            new ComponentDescriptorRemovedEvent(CQLToSolrSortFieldConverter.class));
 
-        if (sortParameterUnset && solrSortParameter != null && !solrSortParameter.isEmpty()) {
-            // We only set the sort parameter according to the CQL expression if it's not empty and a sort parameter
-            // has not already been provided by the callee.
-            // Said differently, the callee has priority over the CQL statement and can override its order by clause.
-            q.bindValue(SORT, solrSortParameter);
+        @Override
+        public String getName()
+        {
+            return CQLQueryExecutor.class.getName();
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return this.events;
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (event instanceof ComponentDescriptorEvent) {
+                if (normalize && statementCache != null) {
+                    // The clauses merged by the normalization depend on the available converters
+                    statementCache.clear();
+                }
+                invalidateConversions();
+            } else if (ConfluenceResolverCache.isConfluenceDataChange(event, source)) {
+                // The conversions depend on the documents only through the Confluence ids and space keys they resolve
+                invalidateConversions();
+            }
         }
-        return q;
     }
 
     private class CQLToSolrWrappingQuery extends WrappingQuery
     {
         private final String solrStatement;
 
-        CQLToSolrWrappingQuery(Query query, String solrStatement)
+        private final List<String> solrFilterQueries;
+
+        private final String solrSortParameter;
+
+        /**
+         * The names of the parameters of the CQL statement, whose values are bound to the wrapped query too.
+         */
+        private final Set<String> cqlParameterNames;
+
+        CQLToSolrWrappingQuery(Query query, String solrStatement, List<String> solrFilterQueries,
+            String solrSortParameter, Set<String> cqlParameterNames)
         {
             super(query);
             this.solrStatement = solrStatement;
+            this.solrFilterQueries = solrFilterQueries;
+            this.solrSortParameter = solrSortParameter;
+            this.cqlParameterNames = cqlParameterNames;
         }
 
         @Override
@@ -134,6 +519,47 @@ public class CQLQueryExecutor implements QueryExecutor
             return solrStatement;
         }
 
+        @Override
+        public Map<String, Object> getNamedParameters()
+        {
+            // The parameters are computed without modifying the wrapped query, so that executing it again gives the same
+            // result
+            Map<String, Object> solrParameters = new LinkedHashMap<>(super.getNamedParameters());
+
+            // The values of the CQL parameters must not be taken as Solr parameters, like q, fq or sort
+            solrParameters.keySet().removeAll(this.cqlParameterNames);
+
+            Object existingSortParameter = solrParameters.get(SORT);
+            boolean sortParameterUnset = existingSortParameter == null || (existingSortParameter instanceof String
+                && ((String) existingSortParameter).isEmpty());
+            if (sortParameterUnset && this.solrSortParameter != null && !this.solrSortParameter.isEmpty()) {
+                // We only set the sort parameter according to the CQL expression if it's not empty and a sort
+                // parameter has not already been provided by the callee.
+                // Said differently, the callee has priority over the CQL statement and can override its order by
+                // clause.
+                solrParameters.put(SORT, this.solrSortParameter);
+            }
+
+            if (this.solrFilterQueries.isEmpty()) {
+                return solrParameters;
+            }
+
+            List<Object> filterQueries = new ArrayList<>();
+            Object existingFilterQueries = solrParameters.get(FILTER_QUERY);
+            if (existingFilterQueries == null) {
+                filterQueries.add(DEFAULT_FILTER_QUERY);
+            } else if (existingFilterQueries instanceof Iterable) {
+                ((Iterable<?>) existingFilterQueries).forEach(filterQueries::add);
+            } else if (existingFilterQueries instanceof Object[]) {
+                filterQueries.addAll(Arrays.asList((Object[]) existingFilterQueries));
+            } else {
+                filterQueries.add(existingFilterQueries);
+            }
+            filterQueries.addAll(this.solrFilterQueries);
+            solrParameters.put(FILTER_QUERY, filterQueries);
+            return solrParameters;
+        }
+
         @Override
         public <T> List<T> execute() throws QueryException
         {
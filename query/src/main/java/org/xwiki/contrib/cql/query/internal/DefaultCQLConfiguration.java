@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.cql.query.CQLConfiguration;
+
+/**
+ * Configuration of the CQL query module, read from xwiki.properties.
+ * @since 0.2.1
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultCQLConfiguration implements CQLConfiguration
+{
+    private static final String PREFIX = "cql.";
+
+    private static final String PARSER_PREFIX = PREFIX + "parser.";
+
+    private static final long DEFAULT_PARSER_CACHE_MAX_WEIGHT = 1000000L;
+
+    private static final int DEFAULT_PARSER_MAX_LENGTH = 65536;
+
+    private static final int DEFAULT_PARSER_MAX_DEPTH = 64;
+
+    private static final int DEFAULT_PARSER_MAX_FUNCTION_ARGUMENTS = 16;
+
+    private static final int DEFAULT_SOLR_STATEMENT_MAX_LENGTH = 1048576;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    public int getParserCacheMaxEntries()
+    {
+        return this.configuration.getProperty(PREFIX + "parserCache.maxEntries", 0);
+    }
+
+    @Override
+    public long getParserCacheMaxWeight()
+    {
+        return this.configuration.getProperty(PREFIX + "parserCache.maxWeight", DEFAULT_PARSER_CACHE_MAX_WEIGHT);
+    }
+
+    @Override
+    public boolean isNormalizationEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "normalization.enabled", true);
+    }
+
+    @Override
+    public int getParserMaxLength()
+    {
+        return this.configuration.getProperty(PARSER_PREFIX + "maxLength", DEFAULT_PARSER_MAX_LENGTH);
+    }
+
+    @Override
+    public int getParserMaxDepth()
+    {
+        return this.configuration.getProperty(PARSER_PREFIX + "maxDepth", DEFAULT_PARSER_MAX_DEPTH);
+    }
+
+    // The numbers of clauses and IN values are not limited by default: statements written for migrated content can
+    // list thousands of page ids, and the maximum length already bounds the work of the parser.
+    @Override
+    public int getParserMaxClauses()
+    {
+        return this.configuration.getProperty(PARSER_PREFIX + "maxClauses", 0);
+    }
+
+    @Override
+    public int getParserMaxInValues()
+    {
+        return this.configuration.getProperty(PARSER_PREFIX + "maxInValues", 0);
+    }
+
+    @Override
+    public int getParserMaxFunctionArguments()
+    {
+        return this.configuration.getProperty(PARSER_PREFIX + "maxFunctionArguments",
+            DEFAULT_PARSER_MAX_FUNCTION_ARGUMENTS);
+    }
+
+    @Override
+    public int getSolrStatementMaxLength()
+    {
+        return this.configuration.getProperty(PREFIX + "solr.maxStatementLength", DEFAULT_SOLR_STATEMENT_MAX_LENGTH);
+    }
+
+    @Override
+    public boolean isSolrFilterQueriesEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "solr.filterQueries.enabled", true);
+    }
+
+    @Override
+    public int getSolrCacheMaxEntries()
+    {
+        return this.configuration.getProperty(PREFIX + "solrCache.maxEntries", 0);
+    }
+
+    @Override
+    public int getResolverCacheMaxEntries()
+    {
+        return this.configuration.getProperty(PREFIX + "resolverCache.maxEntries", 0);
+    }
+}
@@ -20,6 +20,11 @@
 package org.xwiki.contrib.cql.query;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -28,18 +33,36 @@ import org.apache.solr.common.SolrDocumentList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.internal.ContextComponentManagerProvider;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
 import org.xwiki.contrib.confluence.resolvers.internal.DefaultConfluencePageResolver;
 import org.xwiki.contrib.confluence.resolvers.internal.DefaultConfluenceSpaceResolver;
 import org.xwiki.contrib.confluence.resolvers.internal.PageClassConfluenceResolver;
+import org.xwiki.contrib.cql.query.converters.CQLConversionContext;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrSortParameterConverter;
 import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageIdBatchResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceResolverCache;
 import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.internal.CQLQueryExecutor;
+import org.xwiki.contrib.cql.query.internal.DefaultCQLConfiguration;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryExecutor;
@@ -52,6 +75,8 @@ import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.store.hibernate.query.DefaultQueryExecutor;
 import com.xpn.xwiki.test.MockitoOldcore;
 import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
@@ -59,9 +84,15 @@ import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
 import com.xpn.xwiki.test.reference.ReferenceComponentList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -80,6 +111,9 @@ import static org.mockito.Mockito.when;
     ContentCQLToSolrAtomConverter.class,
     ParentCQLToSolrAtomConverter.class,
     DefaultCQLToSolrAtomConverter.class,
+    CQLConversionContext.class,
+    ConfluencePageIdBatchResolver.class,
+    ConfluenceResolverCache.class,
     TestCQLToSolrAtomConverter.class,
     TestCQLToSolrSortParameterConverter.class,
     DefaultCQLToSolrSortParameterConverter.class,
@@ -91,6 +125,18 @@ class CQLQueryExecutorTest
 {
     private static final DocumentReference GUEST = new DocumentReference("xwiki", "XWiki", "Guest");
 
+    private static final String TITLE = "title";
+
+    private static final String TITLE_CQL = "title = a";
+
+    private static final String FILTER_QUERY = "fq";
+
+    private static final String DEFAULT_FILTER_QUERY = "type:DOCUMENT";
+
+    private static final String LABEL = "label";
+
+    private static final String SPACE_FILTER = "space_facet:0\\/SPA.";
+
     @InjectMockitoOldcore
     private MockitoOldcore mockitoOldcore;
 
@@ -109,6 +155,9 @@ class CQLQueryExecutorTest
     @MockComponent
     private SolrInstance solr;
 
+    @MockComponent
+    private CQLConfiguration configuration;
+
     private final MockitoComponentMockingRule<QueryExecutor> componentManager =
         new MockitoComponentMockingRule<>(SolrQueryExecutor.class);
 
@@ -138,4 +187,204 @@ class CQLQueryExecutorTest
             "cql");
         assertSame(r, query.execute().get(0));
     }
+
+    @Test
+    void conversionCacheInvalidation() throws Exception
+    {
+        when(this.configuration.getSolrCacheMaxEntries()).thenReturn(16);
+        this.cqlQueryExecutor.initialize();
+        try {
+            AtomicInteger conversions = new AtomicInteger();
+            CQLToSolrAtomConverter titleConverter = atom -> "converted:" + conversions.incrementAndGet();
+            mockitoOldcore.getMocker().registerComponent(CQLToSolrAtomConverter.class, TITLE, titleConverter);
+            notifyListeners(new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class));
+
+            assertEquals("converted:1", executeSolrQuery(TITLE_CQL).getQuery());
+            assertEquals("converted:1", executeSolrQuery(TITLE_CQL).getQuery());
+
+            // Changing documents can change what the Confluence ids and space keys resolve to
+            notifyListeners(new DocumentCreatedEvent());
+            assertEquals("converted:2", executeSolrQuery(TITLE_CQL).getQuery());
+            // Only the updates of the Confluence page object of a document can
+            XWikiDocument document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+            document.setOriginalDocument(document.clone());
+            document.setContent("Updated");
+            notifyListeners(new DocumentUpdatedEvent(), document);
+            assertEquals("converted:2", executeSolrQuery(TITLE_CQL).getQuery());
+            BaseObject pageObject = new BaseObject();
+            pageObject.setXClassReference(
+                new LocalDocumentReference(Arrays.asList("Confluence", "Code"), "ConfluencePageClass"));
+            document.addXObject(pageObject);
+            notifyListeners(new DocumentUpdatedEvent(), document);
+            assertEquals("converted:3", executeSolrQuery(TITLE_CQL).getQuery());
+            notifyListeners(new DocumentDeletedEvent());
+            assertEquals("converted:4", executeSolrQuery(TITLE_CQL).getQuery());
+            assertEquals("converted:4", executeSolrQuery(TITLE_CQL).getQuery());
+
+            mockitoOldcore.getMocker().unregisterComponent(CQLToSolrAtomConverter.class, TITLE);
+            notifyListeners(new ComponentDescriptorRemovedEvent(CQLToSolrAtomConverter.class));
+            assertFalse(executeSolrQuery(TITLE_CQL).getQuery().startsWith("converted:"));
+        } finally {
+            when(this.configuration.getSolrCacheMaxEntries()).thenReturn(0);
+            this.cqlQueryExecutor.initialize();
+        }
+    }
+
+    @Test
+    void filterQueries() throws Exception
+    {
+        when(this.configuration.isSolrFilterQueriesEnabled()).thenReturn(true);
+        this.cqlQueryExecutor.initialize();
+        try {
+            String cql = "title ~ a and type = page and label = b";
+            List<String> filterQueries = Arrays.asList(toSolr("type = page"), toSolr("label = b"));
+
+            SolrQuery solrQuery = executeSolrQuery(cql);
+            assertEquals(toSolr("title ~ a"), solrQuery.getQuery());
+            // Like the Solr query executor, only documents are searched when the query doesn't give filter queries
+            assertFilterQueries(concat(Arrays.asList(DEFAULT_FILTER_QUERY), filterQueries), solrQuery);
+
+            // The filter queries given by the query are kept, and the ones of the statement are added
+            Query query = queryManager.createQuery(cql, CQLQueryExecutor.CQL).bindValue(FILTER_QUERY, SPACE_FILTER);
+            assertFilterQueries(concat(Arrays.asList(SPACE_FILTER), filterQueries), executeSolrQuery(query));
+            List<String> boundFilterQueries = Arrays.asList(SPACE_FILTER, DEFAULT_FILTER_QUERY);
+            query = queryManager.createQuery(cql, CQLQueryExecutor.CQL).bindValue(FILTER_QUERY, boundFilterQueries);
+            assertFilterQueries(concat(boundFilterQueries, filterQueries), executeSolrQuery(query));
+            // Executing the query again doesn't add them twice
+            assertFilterQueries(concat(boundFilterQueries, filterQueries), executeSolrQuery(query));
+            assertEquals(boundFilterQueries, query.getNamedParameters().get(FILTER_QUERY));
+
+            // Without any clause contributing to the relevance, the statement matches all the documents
+            solrQuery = executeSolrQuery("type = page and label = b");
+            assertEquals("*:*", solrQuery.getQuery());
+            assertFilterQueries(concat(Arrays.asList(DEFAULT_FILTER_QUERY), filterQueries), solrQuery);
+
+            // Disjunctions are not split
+            solrQuery = executeSolrQuery("label = b or title ~ a");
+            assertEquals(toSolr("label = b or title ~ a"), solrQuery.getQuery());
+            assertFilterQueries(Arrays.asList(DEFAULT_FILTER_QUERY), solrQuery);
+
+            // Statements with parameters are split too
+            query = queryManager.createQuery("title ~ a and type = page and label = :label", CQLQueryExecutor.CQL)
+                .bindValue(LABEL, "b");
+            solrQuery = executeSolrQuery(query);
+            assertEquals(toSolr("title ~ a"), solrQuery.getQuery());
+            assertFilterQueries(concat(Arrays.asList(DEFAULT_FILTER_QUERY), filterQueries), solrQuery);
+            assertNull(solrQuery.get(LABEL));
+        } finally {
+            when(this.configuration.isSolrFilterQueriesEnabled()).thenReturn(false);
+            this.cqlQueryExecutor.initialize();
+        }
+    }
+
+    @Test
+    void defaultLimits() throws Exception
+    {
+        ConfigurationSource properties = mock(ConfigurationSource.class);
+        when(properties.getProperty(any(), any(Object.class))).then(invocation -> invocation.getArgument(1));
+        DefaultCQLConfiguration defaultConfiguration = new DefaultCQLConfiguration();
+        ReflectionUtils.setFieldValue(defaultConfiguration, "configuration", properties);
+        doReturn(defaultConfiguration.getParserMaxLength()).when(this.configuration).getParserMaxLength();
+        doReturn(defaultConfiguration.getParserMaxDepth()).when(this.configuration).getParserMaxDepth();
+        doReturn(defaultConfiguration.getParserMaxClauses()).when(this.configuration).getParserMaxClauses();
+        doReturn(defaultConfiguration.getParserMaxInValues()).when(this.configuration).getParserMaxInValues();
+        doReturn(defaultConfiguration.getParserMaxFunctionArguments()).when(this.configuration)
+            .getParserMaxFunctionArguments();
+        doReturn(defaultConfiguration.getSolrStatementMaxLength()).when(this.configuration)
+            .getSolrStatementMaxLength();
+        this.cqlQueryExecutor.initialize();
+        try {
+            // Statements written for migrated content can list thousands of page ids
+            StringBuilder cql = new StringBuilder("test1 in (1");
+            for (int i = 2; i <= 2000; i++) {
+                cql.append(", ").append(i);
+            }
+            cql.append(')');
+            SolrQuery solrQuery = executeSolrQuery(cql.toString());
+            assertEquals(toSolr(cql.toString()), solrQuery.getQuery());
+        } finally {
+            doReturn(0).when(this.configuration).getParserMaxLength();
+            doReturn(0).when(this.configuration).getParserMaxDepth();
+            doReturn(0).when(this.configuration).getParserMaxClauses();
+            doReturn(0).when(this.configuration).getParserMaxInValues();
+            doReturn(0).when(this.configuration).getParserMaxFunctionArguments();
+            doReturn(0).when(this.configuration).getSolrStatementMaxLength();
+            this.cqlQueryExecutor.initialize();
+        }
+    }
+
+    @Test
+    void cqlParameters() throws Exception
+    {
+        // The values of the CQL parameters are not sent to Solr, even when named like Solr parameters
+        Query query = queryManager.createQuery("label = :sort and title = :fq order by title desc",
+            CQLQueryExecutor.CQL).bindValue("sort", "b").bindValue(FILTER_QUERY, "a");
+        SolrQuery solrQuery = executeSolrQuery(query);
+        assertEquals(toSolr("label = b and title = a"), solrQuery.getQuery());
+        assertEquals("title_sort desc", solrQuery.getSortField());
+        assertFilterQueries(Arrays.asList(DEFAULT_FILTER_QUERY), solrQuery);
+        // The query keeps the values bound by the caller
+        assertEquals("b", query.getNamedParameters().get("sort"));
+        assertEquals("title_sort desc", executeSolrQuery(query).getSortField());
+
+        // Without any bound value, parameters are rejected like any other syntax error
+        QueryException thrown = assertThrows(QueryException.class,
+            () -> queryManager.createQuery("label = :label", CQLQueryExecutor.CQL).execute());
+        assertEquals("Unexpected character ':' while trying to parse the end of the CQL expression. Maybe a AND or OR"
+            + " operator is missing? (line 1, col 10, pos 9)", thrown.getCause().getMessage());
+    }
+
+    private String toSolr(String cql) throws Exception
+    {
+        CQLToSolrQueryConverter converter = mockitoOldcore.getMocker().getInstance(CQLToSolrQueryConverter.class);
+        return converter.getSolrStatement(AQLParser.parse(cql));
+    }
+
+    private static List<String> concat(List<String> first, List<String> second)
+    {
+        List<String> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    private static void assertFilterQueries(List<String> expected, SolrQuery solrQuery)
+    {
+        // The Solr query executor may add its own filter queries after the ones of the query, like for hidden documents
+        List<String> filterQueries = Arrays.asList(solrQuery.getFilterQueries());
+        assertEquals(expected, filterQueries.subList(0, Math.min(expected.size(), filterQueries.size())));
+    }
+
+    private SolrQuery executeSolrQuery(String cql) throws Exception
+    {
+        return executeSolrQuery(queryManager.createQuery(cql, CQLQueryExecutor.CQL));
+    }
+
+    private SolrQuery executeSolrQuery(Query query) throws Exception
+    {
+        QueryResponse r = mock(QueryResponse.class);
+        when(r.getResults()).thenReturn(new SolrDocumentList());
+        // Not stubbed with when() which would call the answers of the other tests
+        doReturn(r).when(solr).query(any(SolrQuery.class));
+
+        query.execute();
+
+        ArgumentCaptor<SolrQuery> solrQuery = ArgumentCaptor.forClass(SolrQuery.class);
+        verify(solr, atLeastOnce()).query(solrQuery.capture());
+        return solrQuery.getValue();
+    }
+
+    private void notifyListeners(Event event) throws Exception
+    {
+        notifyListeners(event, null);
+    }
+
+    private void notifyListeners(Event event, Object source) throws Exception
+    {
+        ArgumentCaptor<EventListener> listeners = ArgumentCaptor.forClass(EventListener.class);
+        verify(mockitoOldcore.getMocker().<ObservationManager>getInstance(ObservationManager.class), atLeastOnce())
+            .addListener(listeners.capture());
+        for (EventListener listener : new LinkedHashSet<>(listeners.getAllValues())) {
+            listener.onEvent(event, source, null);
+        }
+    }
 }
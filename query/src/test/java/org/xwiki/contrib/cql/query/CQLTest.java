@@ -20,39 +20,92 @@
 package org.xwiki.contrib.cql.query;
     
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.contrib.confluence.resolvers.ConfluencePageIdResolver;
 import org.xwiki.contrib.confluence.resolvers.ConfluenceResolverException;
 import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceKeyResolver;
 import org.xwiki.contrib.confluence.resolvers.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.aqlparser.AQLBatchParser;
+import org.xwiki.contrib.cql.aqlparser.AQLNormalizer;
+import org.xwiki.contrib.cql.aqlparser.AQLParseResult;
 import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.AQLParserOptions;
+import org.xwiki.contrib.cql.aqlparser.AQLStatementCache;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLIntegerInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLVisitor;
+import org.xwiki.contrib.cql.query.converters.CQLContextInput;
+import org.xwiki.contrib.cql.query.converters.CQLConversionContext;
+import org.xwiki.contrib.cql.query.converters.CQLSolrQuery;
+import org.xwiki.contrib.cql.query.converters.CQLSolrStatementTemplate;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrSortFieldConverter;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageIdBatchResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceResolverCache;
 import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.test.MockitoOldcore;
 import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
 import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
 import com.xpn.xwiki.test.reference.ReferenceComponentList;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -66,6 +119,9 @@ import static org.mockito.Mockito.when;
     ContentCQLToSolrAtomConverter.class,
     ParentCQLToSolrAtomConverter.class,
     DefaultCQLToSolrAtomConverter.class,
+    CQLConversionContext.class,
+    ConfluencePageIdBatchResolver.class,
+    ConfluenceResolverCache.class,
     TestRegexCQLToSolrAtomConverter.class,
     CQLToSolrQueryConverter.class
 })
@@ -143,11 +199,26 @@ class CQLTest
     @MockComponent
     private ConfluenceSpaceResolver confluenceSpaceResolver;
 
+    @MockComponent
+    private CQLConfiguration configuration;
+
     private String t(String cql) throws ParserException, IOException
     {
         return queryConverter.getSolrStatement(AQLParser.parse(cql));
     }
 
+    private String normalized(String cql) throws ParserException, IOException
+    {
+        return queryConverter.getSolrStatement(queryConverter.normalize(AQLParser.parse(cql)));
+    }
+
+    private String prepared(String cql, List<?> positionalValues, Map<String, ?> namedValues)
+        throws ParserException, IOException
+    {
+        return queryConverter.getSolrStatementTemplate(AQLParser.prepare(cql))
+            .getSolrStatement(positionalValues, namedValues);
+    }
+
     private void expectParserException(String expectedMessage, String cql)
     {
         expectParserException(expectedMessage, cql, null);
@@ -532,6 +603,20 @@ class CQLTest
         );
     }
 
+    @Test
+    void testCQLDateTooLarge() throws Exception
+    {
+        expectParserException(
+            "Number too large in the date started at [line 1, col 11, pos 10] (line 1, col 16, pos 15)."
+                + PATH_DATE_PART,
+            "created = 2008/99999999999/31"
+        );
+
+        // Quoted, this is not a date but a string
+        assertInstanceOf(AQLStringLiteral.class, ((AQLAtomicClause) AQLParser.parse("created = '99999999999-05-31'")
+            .getClausesWithNextOp().get(0).getClause()).getRight());
+    }
+
     @Test
     void testCQLIn() throws Exception
     {
@@ -716,6 +801,47 @@ class CQLTest
             "The query failed");
     }
 
+    @Test
+    void testCQLIdInNotFound()
+    {
+        expectParserException(
+            "Could not find the document matching Confluence id [222] (line 1, col 12, pos 11)",
+            "id in (42, 222)");
+        expectParserException(
+            "Could not find the document matching Confluence id [222] (line 1, col 12, pos 11)",
+            "id in (42, \"222\")");
+        expectParserException(
+            "Could not find the document matching Confluence id [111] (line 2, col 2, pos 16)",
+            "parent in (42,\n 111)",
+            "The query failed");
+    }
+
+    @Test
+    void testCQLIdInMixedValues() throws Exception
+    {
+        assertEquals(
+            "fullname:(MySpaceTests.My\\ Page.SubPage.TheAnswer.WebHome"
+                + " OR MySpaceTests.My\\ Page.SubPage.LEET.WebHome)",
+            t("id in (42, \"1337\")"));
+    }
+
+    @Test
+    void testIntegerInExpression() throws Exception
+    {
+        AQLAtomicClause atom = (AQLAtomicClause) AQLParser.parse("id in (42, 1337)")
+            .getClausesWithNextOp().get(0).getClause();
+        AQLIntegerInExpression in = assertInstanceOf(AQLIntegerInExpression.class, atom.getRight());
+        assertEquals(2, in.size());
+        assertEquals(1337L, in.getLong(1));
+        AQLNumberLiteral value = assertInstanceOf(AQLNumberLiteral.class, in.getValues().get(1));
+        assertEquals("1337", value.getNumber());
+        assertEquals(11, value.getOffset());
+
+        // Integers with leading zeros keep their representation as a number literal
+        atom = (AQLAtomicClause) AQLParser.parse("id in (42, 0042)").getClausesWithNextOp().get(0).getClause();
+        assertEquals(AQLInExpression.class, atom.getRight().getClass());
+    }
+
     @Test
     void testStringThatInitiallyLooksLikeANumber() throws Exception
     {
@@ -970,6 +1096,513 @@ class CQLTest
         );
     }
 
+    @Test
+    void testDeeplyNestedParentheses() throws Exception
+    {
+        int depth = 100000;
+        String cql = "(".repeat(depth) + "title = mytitle" + ")".repeat(depth);
+        AbstractAQLClause clause = AQLParser.parse(cql);
+        // The statement itself is the outermost list of clauses.
+        for (int i = 0; i <= depth; i++) {
+            clause = ((AQLClausesWithNextOperator) clause).getClausesWithNextOp().get(0).getClause();
+        }
+        assertEquals("title", ((AQLAtomicClause) clause).getField());
+        assertEquals("title_sort:mytitle", normalized(cql));
+
+        // Comparing, hashing and fingerprinting the statement must not overflow the stack either.
+        String nested = "(".repeat(depth) + "title = a or label = b" + ")".repeat(depth);
+        AQLStatement statement = AQLParser.parse(nested);
+        AQLStatement reordered = AQLParser.parse("(".repeat(depth) + "label = b or title = a" + ")".repeat(depth));
+        assertEquals(statement, reordered);
+        assertEquals(statement.hashCode(), reordered.hashCode());
+        assertEquals(statement.getFingerprint(), reordered.getFingerprint());
+        assertNotEquals(statement, AQLParser.parse("(".repeat(depth) + "label = b or title = c" + ")".repeat(depth)));
+    }
+
+    @Test
+    void testMaxDepth() throws Exception
+    {
+        AQLParserOptions options = new AQLParserOptions().setMaxDepth(2);
+        assertInstanceOf(AQLClausesWithNextOperator.class, AQLParser.parse("((title = a) or (title = b))", options));
+        ParserException thrown = assertThrows(ParserException.class,
+            () -> AQLParser.parse("((title = a) or ((title = b)))", options));
+        assertEquals("Too many nested parentheses, the maximum depth is [2] (line 1, col 19, pos 18)."
+            + " Path: clauses > clause > clauses > clause > clauses > clause", thrown.getMessage());
+    }
+
+    @Test
+    void testParserLimits() throws Exception
+    {
+        AQLParserOptions options = new AQLParserOptions().setMaxLength(30).setMaxClauses(2).setMaxInValues(3)
+            .setMaxFunctionArguments(1);
+        assertInstanceOf(AQLStatement.class, AQLParser.parse("title = a or label in (1,2,3)", options));
+
+        for (List<String> limitAndStatement : Arrays.asList(
+            Arrays.asList("The CQL expression is too long, the maximum length is [30] characters"
+                + " (line 2, col 3, pos 30)", "title = aaaaaaaaaaaaaaaaaaa\nor title = b"),
+            Arrays.asList("Too many clauses, the maximum is [2] (line 1, col 19, pos 18)."
+                + " Path: clauses > clause > atom", "a = b or c = d or e = f"),
+            Arrays.asList("Too many values in the IN expression, the maximum is [3] (line 1, col 20, pos 19)."
+                + " Path: clauses > clause > atom > in expr", "label in (1, 2, 3, 4)"),
+            Arrays.asList("Too many arguments in the function call, the maximum is [1] (line 1, col 25, pos 24)."
+                + " Path: clauses > clause > atom > atomic value > function call arguments",
+                "created > startOfDay(1, 2)")))
+        {
+            ParserException thrown = assertThrows(ParserException.class,
+                () -> AQLParser.parse(limitAndStatement.get(1), options));
+            assertEquals(limitAndStatement.get(0), thrown.getMessage());
+        }
+    }
+
+    @Test
+    void testStatementCache() throws Exception
+    {
+        AQLStatementCache cache = new AQLStatementCache(2, 30);
+        AQLParserOptions options = new AQLParserOptions().setMaxClauses(2);
+        AQLStatement statementA = AQLParser.parse("title = a", cache, options);
+        assertSame(statementA, AQLParser.parse("title = a", cache, options));
+        AQLParser.parse("title = b", cache, options);
+        assertSame(statementA, AQLParser.parse("title = a", cache, options));
+
+        // The least recently used statement is evicted when there are too many statements
+        AQLParser.parse("title = c", cache, options);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("title = b"));
+        assertSame(statementA, cache.get("title = a"));
+        assertEquals(18, cache.getWeight());
+
+        // The least recently used statements are evicted until the weight is low enough
+        AQLParser.parse("title = a or label = abcd", cache, options);
+        assertEquals(1, cache.size());
+        assertEquals(25, cache.getWeight());
+        assertNull(cache.get("title = a"));
+
+        // Statements heavier than the maximum weight, and statements failing to parse are not cached
+        AQLParser.parse("title = abcdefghij or label = abcdefghij", cache, options);
+        assertThrows(ParserException.class, () -> AQLParser.parse("a = b or c = d or e = f", cache, options));
+        assertEquals(1, cache.size());
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(8, cache.getMissCount());
+    }
+
+    @Test
+    void testSolrStatementMaxLength() throws Exception
+    {
+        AQLStatement statement = AQLParser.parse("label = tag1 or label = tag2");
+        String solrStatement = queryConverter.getSolrStatement(statement);
+        assertEquals(solrStatement, queryConverter.getSolrStatement(statement, solrStatement.length()));
+
+        ConversionException thrown = assertThrows(ConversionException.class,
+            () -> queryConverter.getSolrStatement(statement, solrStatement.length() - 1));
+        assertEquals("The Solr query is too long, the maximum length is [" + (solrStatement.length() - 1)
+            + "] characters (line 1, col 1, pos 0)", thrown.getMessage());
+
+        // The conversion stops at the first clause exceeding the limit
+        thrown = assertThrows(ConversionException.class, () -> queryConverter.getSolrStatement(statement, 10));
+        assertEquals("The Solr query is too long, the maximum length is [10] characters (line 1, col 1, pos 0)",
+            thrown.getMessage());
+    }
+
+    @Test
+    void testBatchParser() throws Exception
+    {
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            statements.add("title = t" + (i % 50));
+        }
+        statements.add("title = a and");
+        statements.add("");
+
+        Map<String, AQLParseResult> results = new AQLBatchParser().parse(statements.stream());
+        assertEquals(52, results.size());
+        assertEquals("title = t0", results.keySet().iterator().next());
+        assertEquals(AQLParser.parse("title = t42"), results.get("title = t42").getStatement());
+        assertFalse(results.get("title = t42").hasErrors());
+        assertEquals(
+            Arrays.asList("Expected a field (line 1, col 14, pos 13). Path: clauses > clause > atom > field"),
+            results.get("title = a and").getErrors().stream().map(Throwable::getMessage).collect(Collectors.toList()));
+        assertEquals("The CQL expression is empty (line 0, col 0, pos 0)",
+            results.get("").getErrors().get(0).getMessage());
+    }
+
+    @Test
+    void testSharedOperators() throws Exception
+    {
+        AQLParserOptions options = new AQLParserOptions().setOperatorPositions(false);
+        AQLStatement statement = AQLParser.parse("Title = a and not label != b", options);
+        AQLClauseWithNextOperator first = statement.getClausesWithNextOp().get(0);
+        AQLAtomicClause atom = (AQLAtomicClause) first.getClause();
+        assertSame(AQLClauseOperator.of(true, true), first.getNextOperator());
+        assertSame(AQLAtomicClauseOperator.of(AQLOperator.EQ), atom.getOp());
+        assertSame("title", atom.getField());
+        assertEquals(AQLParser.parse("title = a and not label != b"), statement);
+        assertEquals(t("title = a and not label != b"), queryConverter.getSolrStatement(statement));
+
+        // Operators parsed with their positions are not shared.
+        AQLStatement withPositions = AQLParser.parse("title = a and not label != b");
+        assertEquals(10, withPositions.getClausesWithNextOp().get(0).getNextOperator().getOffset());
+    }
+
+    @Test
+    void testParseRange() throws Exception
+    {
+        String cql = "title = \"a b\" and created > 2020-01-01";
+        String source = "{{cql query=\"" + cql + "\" /}}";
+        int start = source.indexOf(cql);
+        int end = start + cql.length();
+        AQLStatement expected = AQLParser.parse(cql);
+        assertEquals(expected, AQLParser.parse(source, start, end));
+        assertEquals(expected, AQLParser.parse(source.toCharArray(), start, end));
+        assertEquals(expected, AQLParser.parse(new StringBuilder(source), start, end));
+
+        // Positions are relative to the beginning of the range
+        ParserException thrown =
+            assertThrows(ParserException.class, () -> AQLParser.parse(source.toCharArray(), start, start + 17));
+        assertEquals("Expected a field (line 1, col 18, pos 17). Path: clauses > clause > atom > field",
+            thrown.getMessage());
+        assertThrows(IndexOutOfBoundsException.class, () -> AQLParser.parse(source, start, source.length() + 1));
+    }
+
+    @Test
+    void testAtomConverterRegistration() throws Exception
+    {
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(mockitoOldcore.getMocker().<ObservationManager>getInstance(ObservationManager.class))
+            .addListener(listener.capture());
+
+        String defaultConversion = t("title = a");
+        CQLToSolrAtomConverter titleConverter = atom -> "converted:title";
+        mockitoOldcore.getMocker().registerComponent(CQLToSolrAtomConverter.class, "title", titleConverter);
+        listener.getValue().onEvent(new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class), null, null);
+        assertEquals("converted:title", t("title = a"));
+
+        mockitoOldcore.getMocker().unregisterComponent(CQLToSolrAtomConverter.class, "title");
+        listener.getValue().onEvent(new ComponentDescriptorRemovedEvent(CQLToSolrAtomConverter.class), null, null);
+        assertEquals(defaultConversion, t("title = a"));
+    }
+
+    @Test
+    void testSortConverterChain() throws Exception
+    {
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(mockitoOldcore.getMocker().<ObservationManager>getInstance(ObservationManager.class))
+            .addListener(listener.capture());
+
+        CQLToSolrSortFieldConverter titleSortConverter = mock(CQLToSolrSortFieldConverter.class);
+        when(titleSortConverter.getSolrSortParameter(any(), any(), eq("title"))).thenReturn("title_sort asc");
+        when(titleSortConverter.isContextIndependent()).thenReturn(true);
+        mockitoOldcore.getMocker().registerComponent(CQLToSolrSortFieldConverter.class, "title", titleSortConverter);
+        listener.getValue().onEvent(new ComponentDescriptorAddedEvent(CQLToSolrSortFieldConverter.class), null, null);
+
+        AQLStatement statement = AQLParser.parse("type = page order by title, title");
+        assertEquals("title_sort asc,title_sort asc", queryConverter.getSolrSortParameter(statement));
+        assertEquals("title_sort asc,title_sort asc", queryConverter.getSolrSortParameter(statement));
+
+        // The converter is context independent, so the sort parameter of the field is only computed once
+        verify(titleSortConverter).getSolrSortParameter(any(), any(), eq("title"));
+    }
+
+    @Test
+    void testContextInputs() throws Exception
+    {
+        CQLConversionContext conversionContext =
+            mockitoOldcore.getMocker().getInstance(CQLConversionContext.class);
+
+        conversionContext.startTracking();
+        t("title = a and created > startOfDay(\"-5d\")");
+        assertEquals(Collections.emptySet(), conversionContext.stopTracking());
+
+        conversionContext.startTracking();
+        t("creator = currentUser() or title = a");
+        assertEquals(Set.of(CQLContextInput.USER), conversionContext.stopTracking());
+
+        // Inputs read outside tracking are ignored
+        t("creator = currentUser()");
+        assertEquals(Collections.emptySet(), conversionContext.stopTracking());
+    }
+
+    @Test
+    void testIdBatch() throws Exception
+    {
+        assertEquals(t("id in (42, 1337) or parent = 42 or (ancestor = 1337 and id = 42)"),
+            t("id in (42, 1337, 42) or parent = 42 or (ancestor = 1337 and id = 42)"));
+
+        // Each id is only resolved once per statement
+        verify(confluencePageIdResolver, times(2)).getDocumentById(42);
+        verify(confluencePageIdResolver, times(2)).getDocumentById(1337);
+
+        // Ids failing to resolve in the batch are still reported at their position
+        ConversionException e = assertThrows(ConversionException.class, () -> t("id = 42 or parent = 111"));
+        assertEquals("Could not find the document matching Confluence id [111] (line 1, col 21, pos 20)",
+            e.getMessage());
+    }
+
+    @Test
+    void testSolrFilterQueries() throws Exception
+    {
+        CQLSolrQuery solrQuery = queryConverter.getSolrQuery(AQLParser.parse(
+            "space = SPA and label = mytag and text ~ query and not type = page and title ~ a"),
+            AQLParserOptions.UNLIMITED);
+        assertEquals("(" + t("text ~ query") + ") AND (" + t("title ~ a") + ")", solrQuery.getStatement());
+        assertEquals(Arrays.asList(t("space = SPA"), t("label = mytag"), "-(" + t("type = page") + ")"),
+            solrQuery.getFilterQueries());
+
+        // Without any clause contributing to the relevance, the statement matches all the documents
+        solrQuery = queryConverter.getSolrQuery(AQLParser.parse("type = page and (label = a or label = b)"),
+            AQLParserOptions.UNLIMITED);
+        assertEquals("*:*", solrQuery.getStatement());
+        assertEquals(Arrays.asList(t("type = page"), t("label = a or label = b")), solrQuery.getFilterQueries());
+
+        // Disjunctions are not split
+        solrQuery = queryConverter.getSolrQuery(AQLParser.parse("label = mytag or text ~ query"),
+            AQLParserOptions.UNLIMITED);
+        assertEquals(t("label = mytag or text ~ query"), solrQuery.getStatement());
+        assertEquals(Collections.emptyList(), solrQuery.getFilterQueries());
+    }
+
+    @Test
+    void testResolverCache() throws Exception
+    {
+        when(this.configuration.getResolverCacheMaxEntries()).thenReturn(8);
+        mockitoOldcore.getMocker().registerComponent(ConfluenceResolverCache.class);
+        ConfluenceResolverCache cache = mockitoOldcore.getMocker().getInstance(ConfluenceResolverCache.class);
+
+        assertEquals(THE_ANSWER_DOC.getDocumentReference(), cache.getDocumentById(42));
+        assertEquals(THE_ANSWER_DOC.getDocumentReference(), cache.getDocumentById(42));
+        // Unknown ids are cached too
+        assertNull(cache.getDocumentById(222));
+        assertNull(cache.getDocumentById(222));
+        verify(confluencePageIdResolver).getDocumentById(42);
+        verify(confluencePageIdResolver).getDocumentById(222);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+
+        // Failures are not cached
+        assertThrows(ConfluenceResolverException.class, () -> cache.getDocumentById(111));
+        assertThrows(ConfluenceResolverException.class, () -> cache.getDocumentById(111));
+        verify(confluencePageIdResolver, times(2)).getDocumentById(111);
+
+        // Creating or deleting a document clears the cache
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(mockitoOldcore.getMocker().<ObservationManager>getInstance(ObservationManager.class), times(2))
+            .addListener(listener.capture());
+        listener.getValue().onEvent(new DocumentDeletedEvent(), null, null);
+        assertEquals(THE_ANSWER_DOC.getDocumentReference(), cache.getDocumentById(42));
+        verify(confluencePageIdResolver, times(2)).getDocumentById(42);
+    }
+
+    @Test
+    void testResolverCacheWikis() throws Exception
+    {
+        when(this.configuration.getResolverCacheMaxEntries()).thenReturn(8);
+        mockitoOldcore.getMocker().registerComponent(ConfluenceResolverCache.class);
+        ConfluenceResolverCache cache = mockitoOldcore.getMocker().getInstance(ConfluenceResolverCache.class);
+
+        // The resolvers look in the current wiki
+        XWikiContext context = mockitoOldcore.getXWikiContext();
+        when(confluencePageIdResolver.getDocumentById(7)).then(invocation -> "wikia".equals(context.getWikiId())
+            ? new DocumentReference(context.getWikiId(), "Space", WEB_HOME) : null);
+        when(confluenceSpaceKeyResolver.getSpaceByKey("SPA"))
+            .then(invocation -> new SpaceReference(context.getWikiId(), "SPA"));
+
+        context.setWikiId("wikia");
+        assertEquals(new DocumentReference("wikia", "Space", WEB_HOME), cache.getDocumentById(7));
+        assertEquals(new SpaceReference("wikia", "SPA"), cache.getSpaceByKey("SPA"));
+
+        context.setWikiId("wikib");
+        assertNull(cache.getDocumentById(7));
+        assertEquals(new SpaceReference("wikib", "SPA"), cache.getSpaceByKey("SPA"));
+
+        context.setWikiId("wikia");
+        assertEquals(new DocumentReference("wikia", "Space", WEB_HOME), cache.getDocumentById(7));
+        assertEquals(new SpaceReference("wikia", "SPA"), cache.getSpaceByKey("SPA"));
+        verify(confluencePageIdResolver, times(2)).getDocumentById(7);
+        verify(confluenceSpaceKeyResolver, times(2)).getSpaceByKey("SPA");
+
+        // Updating a document without touching its Confluence data keeps the cache
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(mockitoOldcore.getMocker().<ObservationManager>getInstance(ObservationManager.class), times(2))
+            .addListener(listener.capture());
+        XWikiDocument document = new XWikiDocument(new DocumentReference("wikib", "Space", WEB_HOME));
+        document.setOriginalDocument(document.clone());
+        document.setContent("Updated");
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), document, null);
+        context.setWikiId("wikib");
+        assertNull(cache.getDocumentById(7));
+        verify(confluencePageIdResolver, times(2)).getDocumentById(7);
+
+        // Giving it a Confluence page object clears the cache, including the ids not found
+        BaseObject pageObject = new BaseObject();
+        pageObject.setXClassReference(
+            new LocalDocumentReference(Arrays.asList("Confluence", "Code"), "ConfluencePageClass"));
+        document.addXObject(pageObject);
+        listener.getValue().onEvent(new DocumentUpdatedEvent(), document, null);
+        assertNull(cache.getDocumentById(7));
+        verify(confluencePageIdResolver, times(3)).getDocumentById(7);
+    }
+
+    @Test
+    void testParseWithRecovery() throws Exception
+    {
+        AQLParseResult result =
+            AQLParser.parseWithRecovery("title = a b = c and (label * x) and type = page order title");
+        assertEquals(Arrays.asList(
+            "Unexpected character 'b' while trying to parse the end of the CQL expression."
+                + " Maybe a AND or OR operator is missing? (line 1, col 12, pos 11)",
+            "Expected a CQL operator among [IN, NOT IN, =, !=, >=, <=, >, <, ~, !~] (line 1, col 28, pos 27)."
+                + " Path: clauses > clause > clauses > clause > atom > atom operator",
+            "Expected [by] (line 1, col 55, pos 54). Path: order by clauses"),
+            result.getErrors().stream().map(ParserException::getMessage).collect(Collectors.toList()));
+
+        // The clauses containing errors are left out
+        List<AQLClauseWithNextOperator> clauses = result.getStatement().getClausesWithNextOp();
+        assertEquals(2, clauses.size());
+        assertEquals("title", ((AQLAtomicClause) clauses.get(0).getClause()).getField());
+        assertEquals("type", ((AQLAtomicClause) clauses.get(1).getClause()).getField());
+        assertEquals("title", result.getStatement().getOrderByClauses().get(0).getField());
+
+        assertFalse(AQLParser.parseWithRecovery("title = a and type = page").hasErrors());
+    }
+
+    @Test
+    void testVisitor() throws Exception
+    {
+        AQLStatement statement = AQLParser.parse("title = a and (label = b or type = page) order by created");
+        List<String> fields = new ArrayList<>();
+        statement.accept(new AbstractAQLVisitor<Void, List<String>, RuntimeException>()
+        {
+            @Override
+            public Void visit(AQLClausesWithNextOperator node, List<String> result)
+            {
+                for (AQLClauseWithNextOperator clause : node.getClausesWithNextOp()) {
+                    clause.getClause().accept(this, result);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visit(AQLAtomicClause node, List<String> result)
+            {
+                result.add(node.getField());
+                return null;
+            }
+        }, fields);
+        assertEquals(Arrays.asList("title", "label", "type"), fields);
+    }
+
+    @Test
+    void testNormalize() throws Exception
+    {
+        assertEquals("(title_sort:(title\\ 1 OR title2 OR My\\ Title)) OR (property.XWiki.TagClass.tags:(a OR b))",
+            normalized("(title in ('title 1', title2, title2) or label = a) or (title = 'My Title' or label = b)"));
+        assertEquals("(title_sort:a) AND (property.XWiki.TagClass.tags:b)",
+            normalized("((title = a)) and (label = b and title = a)"));
+        assertEquals("(title_sort:a) AND (-property.XWiki.TagClass.tags:b)",
+            normalized("title in (a, a) and label not in (b)"));
+
+        // Groups mixing AND and OR, or using NOT, keep their structure
+        assertEquals("(title_sort:a) OR (title_sort:b) AND (title_sort:c)",
+            normalized("title = a or title = b and title = c"));
+        assertEquals("(title_sort:a) OR -(title_sort:b)", normalized("title = a or not title = b"));
+
+        assertEquals("creationdate:(\"2018-01-01T00:00:00.000Z\" OR \"2019-01-01T00:00:00.000Z\")",
+            normalized("created = 2018-01-01 or created = 2019-01-01 or created = 2018-01-01"));
+
+        // Function calls are not merged
+        assertEquals("(creator:*\\:XWiki.Guest) OR (title_sort:a)",
+            normalized("creator = currentUser() or title = a or creator = currentUser()"));
+
+        // Fields handled by a specialized converter are not merged, so errors are still reported at their clause
+        assertEquals(t("id = 42 or id = 1337"), normalized("id = 42 or id = 1337"));
+        assertEquals(t("parent in (42)"), normalized("parent in (42)"));
+        ConversionException e = assertThrows(ConversionException.class, () -> normalized("id = 42 or id = 222"));
+        assertEquals("Could not find the document matching Confluence id [222] (line 1, col 17, pos 16)",
+            e.getMessage());
+
+        AQLIntegerInExpression ids = (AQLIntegerInExpression) ((AQLAtomicClause) AQLNormalizer.normalize(
+            AQLParser.parse("id in (1, 2, 1, 3)")).getClausesWithNextOp().get(0).getClause()).getRight();
+        assertArrayEquals(new long[] { 1, 2, 3 }, ids.toLongArray());
+    }
+
+    @Test
+    void testStatementEquality() throws Exception
+    {
+        AQLStatement statement = AQLParser.parse("(title = a or label in (1, 2)) and type = page order by created");
+        for (String equivalent : Arrays.asList(
+            "(title = a or label in (1, 2)) and type = page order by created",
+            "TYPE = 'page'  AND (LABEL IN (1,2) OR title = \"a\") ORDER BY created ASC"))
+        {
+            AQLStatement other = AQLParser.parse(equivalent);
+            assertEquals(statement, other);
+            assertEquals(statement.hashCode(), other.hashCode());
+            assertEquals(statement.getFingerprint(), other.getFingerprint());
+        }
+
+        for (String different : Arrays.asList(
+            "(title = a or label in (2, 1)) and type = page order by created",
+            "(title = a and label in (1, 2)) and type = page order by created",
+            "title = a or label in (1, 2) and type = page order by created",
+            "(title = a or label in (1, 2)) and not type = page order by created",
+            "(title = a or label in (1, 2)) and type = page order by created desc",
+            "(title = a or label in (1, '2')) and type = page order by created"))
+        {
+            AQLStatement other = AQLParser.parse(different);
+            assertNotEquals(statement, other);
+            assertNotEquals(statement.getFingerprint(), other.getFingerprint());
+        }
+    }
+
+    @Test
+    void testPreparedStatement() throws Exception
+    {
+        Map<String, Object> noNamedValues = Collections.emptyMap();
+        assertEquals(t("label = tag1 and space = 'space1'"),
+            prepared("label = ? and space = ?", Arrays.asList("tag1", "space1"), noNamedValues));
+        assertEquals(t("label in (tag1, tag2, 'tag 3') or space = space1"),
+            prepared("label in (:labels) or space = :space", Collections.emptyList(),
+                Map.of("labels", Arrays.asList("tag1", "tag2", "tag 3"), "space", "space1")));
+        assertEquals(t("id in (42, 1337) and created > startOfDay('-1d')"),
+            prepared("id in (?, 1337) and created > startOfDay(?)", Arrays.asList(42, "-1d"), noNamedValues));
+
+        // The same template can be used with different values, its constant parts being converted only once
+        CQLSolrStatementTemplate template = queryConverter.getSolrStatementTemplate(
+            AQLParser.prepare("type = page and (label = :label or creator = currentUser()) order by created"));
+        assertFalse(template.isConstant());
+        assertEquals("creationdate asc", template.getSolrSortParameter());
+        for (String label : Arrays.asList("tag1", "tag 3")) {
+            assertEquals(t("type = page and (label = '" + label + "' or creator = currentUser())"),
+                template.getSolrStatement(Collections.emptyList(), Map.of("label", label)));
+        }
+
+        assertTrue(queryConverter.getSolrStatementTemplate(AQLParser.prepare("type = page")).isConstant());
+
+        // Clauses resolved in the current wiki are converted each time
+        XWikiContext context = mockitoOldcore.getXWikiContext();
+        when(confluencePageIdResolver.getDocumentById(7))
+            .then(invocation -> new DocumentReference(context.getWikiId(), "Space", context.getWikiId()));
+        template = queryConverter.getSolrStatementTemplate(AQLParser.prepare("id = 7 and label = ?"));
+        context.setWikiId("wikia");
+        String wikiAStatement = template.getSolrStatement(Arrays.asList("tag1"), Collections.emptyMap());
+        assertEquals(t("id = 7 and label = tag1"), wikiAStatement);
+        context.setWikiId("wikib");
+        String wikiBStatement = template.getSolrStatement(Arrays.asList("tag1"), Collections.emptyMap());
+        assertEquals(t("id = 7 and label = tag1"), wikiBStatement);
+        assertNotEquals(wikiAStatement, wikiBStatement);
+        assertFalse(queryConverter.getSolrStatementTemplate(AQLParser.prepare("space = SPA")).isConstant());
+
+        ParserException thrown = assertThrows(ParserException.class,
+            () -> prepared("label = ? and space = :space", Arrays.asList("tag1"), noNamedValues));
+        assertEquals("Parameter [:space] has no value (line 1, col 23, pos 22)", thrown.getMessage());
+        thrown = assertThrows(ParserException.class, () -> prepared("label in (:labels)", Collections.emptyList(),
+            Collections.singletonMap("labels", Arrays.asList("tag1", null))));
+        assertEquals("Parameter [:labels] has no value (line 1, col 11, pos 10)", thrown.getMessage());
+
+        // Parameters are only allowed in prepared statements
+        assertThrows(ParserException.class, () -> t("label = ?"));
+    }
+
     @Test
     void testMissingFunctionCallCloseParen1()
     {
@@ -1009,6 +1642,16 @@ class CQLTest
         );
     }
 
+    @Test
+    void testUnexpectedDollar()
+    {
+        expectParserException(
+            "Unexpected character '$' while trying to parse the end of the CQL expression."
+                + " Maybe a AND or OR operator is missing? (line 1, col 12, pos 11)",
+            "title = x $"
+        );
+    }
+
     @Test
     void testEmpty()
     {